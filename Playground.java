@@ -20,6 +20,12 @@ import java.net.*;
 import java.lang.reflect.*;
 import java.lang.ProcessBuilder.*;
 import java.util.*;
+import java.security.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+import com.sun.source.util.*;
+import java.nio.channels.*;
+import java.lang.ref.*;
 
 /**
  * A simplified Java working environment- no need to have a lot of the confusing constructs of the full language.
@@ -27,6 +33,7 @@ import java.util.*;
 public class Playground {
     //Overall frame
     static JSplitPane splitter;
+    static StatusBar statusBar;
     static JFrame frame;
 
     //Main editing area and related
@@ -50,7 +57,21 @@ public class Playground {
 
     //Other miscellaneous stuff
     static JavaCompiler compiler;
+    static CompilerService compilerService;
+    static CompileCache compileCache;
+    static ResultCache resultCache;
+    static SpeculativeCompiler speculativeCompiler;
+    static RunPipeline runPipeline;
+    static SyntaxChecker syntaxChecker;
+    static LibraryManager libraryManager = new LibraryManager();
     static Process JVM;
+    static InProcessRun inProcess; //Used instead of JVM for programs run in-process
+    static WorkerPool workerPool;
+    static ClassDataArchive classDataArchive;
+    static RuntimeImage runtimeImage;
+    static HotSwapSession hotSwap; //The debugger connection to JVM, when hot-swapping
+    static BenchmarkRun benchmark; //Starts the JVMs itself, one per fork
+    static SweepRun sweep; //Starts the JVMs itself, one per input
     static boolean JVMrunning;
     static IOHandlerThread redirectErr, redirectOut, redirectIn;
     static ArrayList<Integer> dirtyBounds; //Holds the boundaries of comments and string literals
@@ -77,6 +98,21 @@ public class Playground {
     static boolean verboseCompiling;
     static boolean warningsEnabled;
     static boolean clearOnMethod;
+    static boolean inMemoryCompiling;
+    static boolean speculativeCompiling;
+    static boolean syntaxChecking;
+    static boolean useCompileDaemon;
+    static boolean inProcessRunning;
+    static boolean useWorkerPool;
+    static boolean useClassDataArchive;
+    static boolean useRuntimeImage;
+    static boolean hotSwapping;
+    static boolean bufferOutput;
+    static boolean showTelemetry;
+    static boolean cacheResults;
+    static int wallTimeLimit, cpuTimeLimit; //Seconds; 0 for no limit
+    static int heapLimit; //Megabytes; 0 for the JVM's default
+    static final int PROFILE_INTERVAL = 10; //Milliseconds between the profiler's samples
     static String compileOptions;
     static String runOptions;
     
@@ -89,20 +125,45 @@ public class Playground {
     static SimpleAttributeSet[] attributeScheme;
     static String theme;
 
-    public static void main(String[] args) {            
+    public static void main(String[] args) throws IOException {            
+        //"java Playground -daemon" runs the shared compile server instead of the editor.
+        if (args.length > 0 && args[0].equals("-daemon")) {
+            CompileDaemon.serve();
+            return;
+        }
+        //"java Playground -batch <directory>" runs every program in it; see BatchRunner.
+        if (args.length > 0 && args[0].equals("-batch")) {
+            BatchRunner.run(args);
+            return;
+        }
+        //"java Playground -serve" runs programs sent over HTTP; see ExecutionServer.
+        if (args.length > 0 && args[0].equals("-serve")) {
+            ExecutionServer.serve(args);
+            return;
+        }
+
         //Init GUI
         frame = new JFrame("Java Playground");
         frame.setSize(640, 480);
         //Make sure the divider is properly resized
         frame.addComponentListener(new ComponentAdapter(){public void componentResized(ComponentEvent c){splitter.setDividerLocation(defaultSliderPosition);}});
         //Make sure the JVM is reset on close, and close any open windows we have.
-        frame.addWindowListener(new WindowAdapter(){public void windowClosing(WindowEvent w){kill();if(of!=null)of.dispose();if(hf!=null)hf.dispose();}});
+        frame.addWindowListener(new WindowAdapter(){public void windowClosing(WindowEvent w){runPipeline.cancel();kill();workerPool.shutdown();if(of!=null)of.dispose();if(hf!=null)hf.dispose();}});
         frame.setLocationRelativeTo(null);
 
         //Setting up the keybinding
         //Ctrl+r or Cmd+r -> compile/run
         bind(KeyEvent.VK_R);
 
+        //Ctrl+p or Cmd+p -> run with the profiler
+        bind(KeyEvent.VK_P);
+
+        //Ctrl+b or Cmd+b -> run the benchmarks
+        bind(KeyEvent.VK_B);
+
+        //Ctrl+g or Cmd+g -> run once for each //sweep: input
+        bind(KeyEvent.VK_G);
+
         //Ctrl+k or Cmd+k -> kill JVM
         bind(KeyEvent.VK_K);
 
@@ -147,6 +208,21 @@ public class Playground {
         verboseCompiling = true; //When this is enabled, make sure to disable error filtering.
         warningsEnabled = true; 
         clearOnMethod = false;
+        inMemoryCompiling = true; //Keeps Main.java/Main.class out of the working directory.
+        speculativeCompiling = true; //Only works along with in-memory compiling.
+        syntaxChecking = true;
+        useCompileDaemon = true; //Falls back to compiling in-process when no daemon is running.
+        inProcessRunning = false;
+        useWorkerPool = true; //Only for in-memory compiling, since the worker gets the classes through its stdin.
+        useClassDataArchive = true; //Also only for in-memory compiling; see ClassDataArchive.
+        useRuntimeImage = true; //Same again; see RuntimeImage.
+        hotSwapping = false; //Runs programs under a debugger, which makes them start slower.
+        bufferOutput = true; //Only for in-memory compiling, since the Launcher does the buffering.
+        showTelemetry = true; //Same for telemetry.
+        cacheResults = false; //Opt-in, since the check for programs that could print something different isn't airtight.
+        wallTimeLimit = 0; //Swing programs can stay open as long as they like,
+        cpuTimeLimit = 300; //but not spin forever.
+        heapLimit = 0;
         compileOptions = "";
         runOptions = "";
 
@@ -196,8 +272,14 @@ public class Playground {
         //both in this program and any program it executes.
         out = new TextOutputStream(outputText, null);
         err = new TextOutputStream(outputText, error);
-        System.setOut(new PrintStream(out));
-        System.setErr(new PrintStream(err));
+        //Output from programs run in-process is routed to their own run instead.
+        //Closing them (which an in-process program is free to do) mustn't cut off everyone else.
+        System.setOut(new PrintStream(new RoutedStream(out, false)) {
+                public void close() {flush();}
+            });
+        System.setErr(new PrintStream(new RoutedStream(err, true)) {
+                public void close() {flush();}
+            });
 
         //Try to load settings from a file.
         if (new File("settings.txt").exists()) {
@@ -221,6 +303,9 @@ public class Playground {
         splitter.setContinuousLayout(true); //For that smooth update on scroll
         consoleDisplayed = true;
         frame.add(splitter);
+        statusBar = new StatusBar();
+        statusBar.setVisible(showTelemetry);
+        frame.add(statusBar, BorderLayout.SOUTH);
         frame.setSize(640,480);
 
         //Awwww yisss sweet colors mang
@@ -230,6 +315,21 @@ public class Playground {
 
         //Setting up miscellaneous stuff
         compiler = ToolProvider.getSystemJavaCompiler();
+        if (compiler != null) {
+            compilerService = new CompilerService(compiler, null);
+            //No point warming up our own javac if the shared one is going to do the work.
+            if (!useCompileDaemon || !CompileDaemon.isRunning())
+                compilerService.warmUp();
+        }
+        compileCache = new CompileCache(new File(getWorkingDirectory(), "compile"));
+        resultCache = new ResultCache(new File(getWorkingDirectory(), "results"));
+        speculativeCompiler = new SpeculativeCompiler();
+        runPipeline = new RunPipeline();
+        runtimeImage = new RuntimeImage(getWorkingDirectory());
+        classDataArchive = new ClassDataArchive(getWorkingDirectory());
+        workerPool = new WorkerPool();
+        prepareRuntime();
+        if (compiler != null) syntaxChecker = new SyntaxChecker();
         JVMrunning = false;
         redirectErr = null;
         redirectOut = null;
@@ -268,6 +368,23 @@ public class Playground {
             for(int i = 0; i < colorScheme.length; i++) 
                 writer.append(colorScheme[i].getRGB() + "\n");
             writer.append(theme + "\n");
+            //Newer options go at the end so old settings files still load.
+            writer.append(inMemoryCompiling + "\n");
+            writer.append(speculativeCompiling + "\n");
+            writer.append(syntaxChecking + "\n");
+            writer.append(useCompileDaemon + "\n");
+            writer.append(libraryManager.save() + "\n");
+            writer.append(inProcessRunning + "\n");
+            writer.append(useWorkerPool + "\n");
+            writer.append(useClassDataArchive + "\n");
+            writer.append(useRuntimeImage + "\n");
+            writer.append(hotSwapping + "\n");
+            writer.append(wallTimeLimit + "\n");
+            writer.append(cpuTimeLimit + "\n");
+            writer.append(heapLimit + "\n");
+            writer.append(bufferOutput + "\n");
+            writer.append(showTelemetry + "\n");
+            writer.append(cacheResults + "\n");
 
             writer.close();            
         } catch (IOException i) {
@@ -299,6 +416,25 @@ public class Playground {
 
             theme = reader.readLine();
 
+            //Options added after the color settings; missing in older settings files.
+            String line = reader.readLine();
+            if (line != null) inMemoryCompiling = Boolean.parseBoolean(line);
+            if ((line = reader.readLine()) != null) speculativeCompiling = Boolean.parseBoolean(line);
+            if ((line = reader.readLine()) != null) syntaxChecking = Boolean.parseBoolean(line);
+            if ((line = reader.readLine()) != null) useCompileDaemon = Boolean.parseBoolean(line);
+            if ((line = reader.readLine()) != null) libraryManager.load(line);
+            if ((line = reader.readLine()) != null) inProcessRunning = Boolean.parseBoolean(line);
+            if ((line = reader.readLine()) != null) useWorkerPool = Boolean.parseBoolean(line);
+            if ((line = reader.readLine()) != null) useClassDataArchive = Boolean.parseBoolean(line);
+            if ((line = reader.readLine()) != null) useRuntimeImage = Boolean.parseBoolean(line);
+            if ((line = reader.readLine()) != null) hotSwapping = Boolean.parseBoolean(line);
+            if ((line = reader.readLine()) != null) wallTimeLimit = Integer.parseInt(line);
+            if ((line = reader.readLine()) != null) cpuTimeLimit = Integer.parseInt(line);
+            if ((line = reader.readLine()) != null) heapLimit = Integer.parseInt(line);
+            if ((line = reader.readLine()) != null) bufferOutput = Boolean.parseBoolean(line);
+            if ((line = reader.readLine()) != null) showTelemetry = Boolean.parseBoolean(line);
+            if ((line = reader.readLine()) != null) cacheResults = Boolean.parseBoolean(line);
+
             reader.close();            
         } catch (FileNotFoundException f) {
             println("Couldn't find the settings. How the hell.", progErr);
@@ -320,16 +456,30 @@ public class Playground {
     private static void println(String message, SimpleAttributeSet settings) {print(message + "\n", settings);}
 
     //Appends text to the end of the log, using the provided settings. Doesn't add a new line.
-    private static void print(String message, SimpleAttributeSet settings) {
+    //Safe to call from any thread; off the Event Dispatch Thread it's queued up behind the rest of the output.
+    private static void print(final String message, final SimpleAttributeSet settings) {
+        //Without the editor (running -batch), there's no log to append to.
+        if (outputText == null) {
+            System.out.print(message);
+            return;
+        }
+        if (!SwingUtilities.isEventDispatchThread()) {
+            SwingUtilities.invokeLater(new Runnable() {public void run() {print(message, settings);}});
+            return;
+        }
         try {
             if(warning.equals(settings) && !warningsEnabled) return; //Living life on the edge, here.
-            if (settings == null) settings = attributeScheme[11]; //If default, get default attribute
-            outputText.getDocument().insertString(outputText.getDocument().getLength(), message, settings);
+            //If default, get default attribute
+            outputText.getDocument().insertString(outputText.getDocument().getLength(), message, settings == null ? attributeScheme[11] : settings);
         } catch (BadLocationException e) {/*Don't care!*/}
     }
 
     //Makes sure the log is visible.
     private static void displayLog() {
+        if (!SwingUtilities.isEventDispatchThread()) {
+            SwingUtilities.invokeLater(new Runnable() {public void run() {displayLog();}});
+            return;
+        }
         if (!consoleDisplayed) {
             splitter.setDividerLocation(defaultSliderPosition);
             consoleDisplayed=true;
@@ -341,88 +491,241 @@ public class Playground {
     }
 
     //Writes the program to a source file, and compiles it.
-    private static void compileAndRun(String fileName, String code) {
-
-        if(verboseCompiling) println("Deleting old temp files...", warning);
-        new File(fileName + ".java").delete();
-        new File(fileName + ".class").delete();
-
-        if(verboseCompiling) println("Creating source file...", progErr);
-        file = new File(fileName + ".java");
-
-        if(verboseCompiling) println("Writing code to source file...", progErr);
-        try {
-            new FileWriter(file).append(code).close();
-        } catch (IOException i) {
-            println("Had an IO Exception when trying to write the code. Stack trace:", error);
-            i.printStackTrace();
-            return; //Exit on error
-        }
-
-        if(verboseCompiling) println("Compiling code...", progErr);
+    //Runs on the run pipeline's thread; gives up quietly once "cancelled" is set by a newer run or Cmd+K.
+    private static void compileAndRun(Program program, AtomicBoolean cancelled, int mode) {
+        String fileName = program.name, code = program.code;
         //This should only ever be called if the JDK isn't installed. How you'd get here, I don't know.
         if (compiler == null) {
             println("Fatal Error: JDK not installed. Go to java.sun.com and install.", error);
             return;
         }
 
-        //Tries to compile. Success code is 0, so if something goes wrong, report.
-        int result = -1;
-        if (compileOptions.trim().equals(""))
-            result = compiler.run(null, out, err, file.getAbsolutePath());
-        else
-        //result = compiler.run(null, out, err, compileOptions, file.getAbsolutePath());
-            result = compiler.run(null, out, err, "-cp", "/Users/student/Desktop/bluecove-2.1.0.jar", file.getAbsolutePath());
-        //ArrayList<String> files = new ArrayList<>();
-        //files.add(fileName);
-        //boolean result = compiler.getTask(null, null, new ErrorReporter(), null, files, null).call();
-        if (result != 0) {
-            displayLog();
-            //println("end record", error); //End recording and pull out the message
+        //The compiled classes when compiling in memory; null means they're on disk in the working directory.
+        Map<String, byte[]> classes = null;
+        RunTimings timings = new RunTimings(fileName);
+
+        if (inMemoryCompiling) {
+            if(verboseCompiling) println("Compiling code in memory...", progErr);
+            classes = compileInMemory(program, cancelled, timings);
+            if (cancelled.get()) {
+                println("Run cancelled.", warning);
+                return;
+            }
+            if (classes == null) {
+                displayLog();
+                println("Failed to compile.", warning);
+                return; //Return on error
+            }
+        } else {
+            if(verboseCompiling) println("Deleting old temp files...", warning);
+            new File(fileName + ".java").delete();
+            new File(fileName + ".class").delete();
 
-            //println("Error type: " + result,error);
-            println("Failed to compile.", warning);
-            return; //Return on error
+            if(verboseCompiling) println("Creating source file...", progErr);
+            file = new File(fileName + ".java");
+
+            if(verboseCompiling) println("Writing code to source file...", progErr);
+            try {
+                timings.start(RunTimings.WRITE);
+                new FileWriter(file).append(code).close();
+                timings.stop(RunTimings.WRITE);
+            } catch (IOException i) {
+                println("Had an IO Exception when trying to write the code. Stack trace:", error);
+                i.printStackTrace();
+                return; //Exit on error
+            }
+
+            if(verboseCompiling) println("Compiling code...", progErr);
+
+            //Tries to compile. If something goes wrong, report.
+            PrintWriter writer = new PrintWriter(new OutputStreamWriter(err));
+            ErrorReporter reporter = new ErrorReporter(program);
+            boolean result = compilerService.compile(file, writer, reporter, cancelled, timings);
+            writer.flush();
+            if (!cancelled.get()) reporter.print();
+            if (cancelled.get()) {
+                println("Run cancelled.", warning);
+                return;
+            }
+            if (!result) {
+                displayLog();
+                //println("end record", error); //End recording and pull out the message
+
+                //println("Error type: " + result,error);
+                println("Failed to compile.", warning);
+                return; //Return on error
+            }
+        }
+
+        launch(program, classes, cancelled, timings, mode);
+    }
+
+    //Starts a new JVM running the compiled class. Synchronized with kill(), so Cmd+K can't slip in halfway.
+    private static synchronized void launch(Program program, Map<String, byte[]> classes, AtomicBoolean cancelled, final RunTimings timings,
+    int mode) {
+        String fileName = program.name;
+        if (cancelled.get()) {
+            println("Run cancelled.", warning);
+            return;
+        }
+        //The other modes need the Launcher.
+        if (mode != RunPipeline.NORMAL && classes == null) {
+            println("That needs in-memory compiling, so it's just a normal run.", warning);
+            mode = RunPipeline.NORMAL;
+        }
+        //Checked before the running program is killed, so a sweep with nothing to run leaves it alone.
+        ArrayList<SweepRun.Input> inputs = null;
+        if (mode == RunPipeline.SWEEP) {
+            inputs = SweepRun.getInputs(program.source);
+            if (inputs.isEmpty()) {
+                println("No inputs to sweep over. Add lines like //sweep: 1 2 3 (arguments) or //sweep-stdin: input.txt.", warning);
+                return;
+            }
         }
 
         if(verboseCompiling) println("Attempting to run code...", progErr);
         try {
+            //A program with a debugger attached can take new method bodies without losing its state.
+            if(hotSwap != null && classes != null && mode == RunPipeline.NORMAL && JVM != null && JVM.isAlive()) {
+                String reason = hotSwap.redefine(fileName, classes);
+                if (reason == null) {
+                    println("Hot-swapped into the running program on " + java.util.Calendar.getInstance().getTime().toString(), progErr);
+                    return;
+                }
+                if(verboseCompiling) println("Restarting, since " + reason + ".", progErr);
+            }
+
             //Makes sure the JVM resets if it's already running.
             if(JVMrunning) 
                 kill();
 
             //Clears terminal window on main method call.
             if(clearOnMethod)
-                outputText.setText("");
-
-            //Some String constants for java path and OS-specific separators.
-            String separator = System.getProperty("file.separator");
-            String path = System.getProperty("java.home")
-                + separator + "bin" + separator + "java";
-
-            //Creates a new process that executes the source file.
-            ProcessBuilder builder = null;
-            if(runOptions.trim().equals("")) 
-                builder = new ProcessBuilder(path, fileName);
-            else 
-                builder = new ProcessBuilder(path, runOptions, fileName);
+                SwingUtilities.invokeLater(new Runnable() {public void run() {outputText.setText("");}});
+            if(statusBar != null)
+                statusBar.clear();
 
             //Everything should be good now. Everything past this is on you. Don't mess it up.
             println("Build succeeded on " + java.util.Calendar.getInstance().getTime().toString(), progErr);
             println("~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~", progErr);                
 
-            //Tries to run compiled code.
-            JVM = builder.start();
+            //A program that can only ever print the same thing doesn't need to be run again.
+            String resultKey = null;
+            if(classes != null && cacheResults && !hotSwapping && mode == RunPipeline.NORMAL) {
+                String reason = ResultCache.getReasonNotToCache(classes);
+                if (reason == null) {
+                    resultKey = ResultCache.key(classes);
+                    if (resultCache.replay(fileName, resultKey)) return;
+                } else if(verboseCompiling) {
+                    println("Not caching the result, since " + reason + ".", progErr);
+                }
+            }
+
+            //Simple programs can skip starting a JVM altogether. Not ones being cached, since the cache records
+            //what comes down a Launcher's pipe.
+            if(classes != null && inProcessRunning && !hotSwapping && mode == RunPipeline.NORMAL && resultKey == null) {
+                String reason = InProcessRun.getReasonToFork(classes);
+                if (reason == null) {
+                    inProcess = new InProcessRun(fileName, classes, timings);
+                    inProcess.start();
+                    JVMrunning = true;
+                    return;
+                }
+                if(verboseCompiling) println("Running in a new JVM, since " + reason + ".", progErr);
+            }
+
+            //Creates a new process that executes the source file.
+            //Classes compiled to disk aren't checked against the trimmed runtime, so they get the full JDK.
+            //So do programs run for hot-swapping, since the image has no debugger agent.
+            boolean swappable = classes != null && hotSwapping && mode == RunPipeline.NORMAL;
+            String home = classes != null && !swappable ? getRuntimeHome() : System.getProperty("java.home");
+            if (!home.equals(System.getProperty("java.home"))) {
+                String missing = runtimeImage.getMissingModule(classes);
+                if (missing != null) {
+                    if(verboseCompiling) println("Running on the full JDK, since it uses " + missing + ".", progErr);
+                    home = System.getProperty("java.home");
+                }
+            }
+            ArrayList<String> command = getRunCommand(home, classes != null);
+            if (mode == RunPipeline.PROFILE) {
+                command.add(1, "-D" + Launcher.PROFILE_PROPERTY + "=" + PROFILE_INTERVAL);
+                println("Profiling. The profile comes when the program exits; stopping it with Cmd+K means no profile.", progErr);
+            }
+            if (mode == RunPipeline.BENCHMARK) {
+                benchmark = new BenchmarkRun(program, classes, command, timings);
+                benchmark.start();
+                JVMrunning = true;
+                return;
+            }
+            if (mode == RunPipeline.SWEEP) {
+                sweep = new SweepRun(program, classes, command, inputs);
+                sweep.start();
+                JVMrunning = true;
+                return;
+            }
+            if (swappable) {
+                try {
+                    hotSwap = new HotSwapSession(fileName, classes);
+                    command.add(1, hotSwap.getOption());
+                } catch (IOException i) {
+                    println("Couldn't start the debugger for hot-swapping: " + i.getMessage(), warning);
+                }
+            }
+
+            //Tries to run compiled code, in an already booted worker if there's one waiting.
+            timings.start(RunTimings.SPAWN);
+            //Workers are only kept for normal runs; asking for another kind would retire them.
+            Process worker = classes != null && useWorkerPool && hotSwap == null && mode == RunPipeline.NORMAL ? workerPool.take(command) : null;
+            if (worker != null) {
+                if(verboseCompiling) println("Running in a pre-started JVM.", progErr);
+                JVM = worker;
+                DataOutputStream name = new DataOutputStream(JVM.getOutputStream());
+                name.writeUTF(fileName);
+                name.flush();
+            } else {
+                command.add(fileName);
+                JVM = new ProcessBuilder(command).start();
+            }
             JVMrunning = true;
+            timings.launched();
+            if (hotSwap != null) hotSwap.attach();
+
+            //Hands the class bytes to the Launcher. The pipe is left open for the program's own System.in.
+            if(classes != null)
+                Launcher.writeClasses(JVM.getOutputStream(), classes);
+            timings.stop(RunTimings.SPAWN);
 
             //Links runtime out/err to our terminal window. No support for input yet.
-            Reader errorReader = new InputStreamReader(JVM.getErrorStream());
-            Reader outReader = new InputStreamReader(JVM.getInputStream());
-            //Writer inReader = new OutputStreamWriter(JVM.getOutputStream());
+            if(classes != null) {
+                //Both come framed down stdout; see Launcher. The JVM's own messages come down stderr.
+                ChannelReader reader = new ChannelReader(JVM, program, classes.keySet(), timings);
+                if (resultKey != null) reader.record();
+                if (mode == RunPipeline.PROFILE) reader.expectProfile();
+                redirectOut = reader;
+                redirectOut.start();
+            } else {
+                Reader errorReader = new InputStreamReader(JVM.getErrorStream());
+                Reader outReader = new InputStreamReader(JVM.getInputStream());
+                //Writer inReader = new OutputStreamWriter(JVM.getOutputStream());
 
-            redirectErr = redirectIOStream(errorReader, err);
-            redirectOut = redirectIOStream(outReader, out);
-            //redirectIn = redirectIOStream(null, inReader);
+                redirectErr = redirectIOStream(errorReader, err, timings);
+                redirectOut = redirectIOStream(outReader, out, timings);
+                //redirectIn = redirectIOStream(null, inReader);
+            }
+
+            //The timings wait for the last of the output, which has the program's metrics in it.
+            final IOHandlerThread reader = redirectOut;
+            final String key = resultKey;
+            final Watchdog watchdog = new Watchdog(fileName, JVM);
+            JVM.onExit().thenAccept(new java.util.function.Consumer<Process>() {
+                    public void accept(Process p) {
+                        try {reader.join(500);} catch (InterruptedException i) {}
+                        timings.finish(p.exitValue());
+                        //Only runs that finished on their own; a run that was stopped didn't print everything.
+                        byte[] output = key != null && !watchdog.isStopping() ? ((ChannelReader)reader).getRecording() : null;
+                        if (output != null) resultCache.put(key, output, p.exitValue());
+                    }
+                });
         } catch (IOException e) {
             //JVM = builder.start() can throw this.
             println("IOException when running the JVM.", progErr);
@@ -432,8 +735,222 @@ public class Playground {
         }
     }
 
+    //The command that starts a child JVM from the given java.home, minus the name of the class to run.
+    //In-memory classes are run by the Launcher, which reads them from the process's stdin.
+    private static ArrayList<String> getRunCommand(String home, boolean inMemory) {
+        ArrayList<String> command = new ArrayList<String>();
+        command.add(getJava(home));
+        boolean sharing = inMemory && useClassDataArchive && classDataArchive != null;
+        if(sharing)
+            command.addAll(classDataArchive.getOptions(home));
+        if(heapLimit > 0)
+            command.add("-Xmx" + heapLimit + "m");
+        if(inMemory && bufferOutput)
+            command.add("-D" + Launcher.BUFFER_PROPERTY + "=true");
+        if(inMemory && showTelemetry)
+            command.add("-D" + Launcher.TELEMETRY_PROPERTY + "=true");
+        command.addAll(splitOptions(runOptions)); //After the heap limit, so an -Xmx here still wins.
+        command.add("-cp");
+        if(inMemory) {
+            command.add((sharing ? classDataArchive.getLauncherPath() : getPlaygroundPath())
+                + File.pathSeparator + libraryManager.getClassPath());
+            command.add(Launcher.class.getName());
+        } else {
+            command.add(libraryManager.getClassPath());
+        }
+        return command;
+    }
+
+    //The java.home child JVMs start from: the trimmed runtime image once it's ready, or this JDK.
+    private static String getRuntimeHome() {
+        String image = useRuntimeImage && runtimeImage != null ? runtimeImage.getHome() : null;
+        return image != null ? image : System.getProperty("java.home");
+    }
+
+    //The java executable in a java.home.
+    private static String getJava(String home) {
+        //Some String constants for java path and OS-specific separators.
+        String separator = System.getProperty("file.separator");
+        return home + separator + "bin" + separator + "java";
+    }
+
+    //Builds what child JVMs start from in the background: the runtime image first, since the class data
+    //archive is made for a particular runtime. Takes a while the first time.
+    private static void prepareRuntime() {
+        Thread t = new Thread("Child runtime") {
+                public void run() {
+                    synchronized (RuntimeImage.class) {
+                        build();
+                    }
+                }
+
+                private void build() {
+                    if (useRuntimeImage) {
+                        try {
+                            runtimeImage.build();
+                        } catch (Exception e) {
+                            println("Couldn't build the trimmed runtime: " + e.getMessage(), warning);
+                        }
+                    }
+                    if (useClassDataArchive) {
+                        try {
+                            classDataArchive.build(getRuntimeHome());
+                        } catch (Exception e) {
+                            println("Couldn't build the class data archive: " + e.getMessage(), warning);
+                        }
+                    }
+                    prepareWorkers(); //Waiting workers were started without them.
+                }
+            };
+        t.setDaemon(true);
+        t.start();
+    }
+
+    //Re-keys the worker pool to the current run command. Called whenever something that goes into it changes.
+    private static void prepareWorkers() {
+        if (useWorkerPool && inMemoryCompiling && workerPool != null)
+            workerPool.prepare(getRunCommand(getRuntimeHome(), true));
+    }
+
+    //Compiles the code without touching the disk. Returns the class bytes by binary name, or null on failure.
+    private static Map<String, byte[]> compileInMemory(Program program, AtomicBoolean cancelled, RunTimings timings) {
+        String fileName = program.name, code = program.code;
+        String key = CompileCache.key(fileName, code);
+        Map<String, byte[]> classes = compileCache.get(key);
+        if (classes != null) {
+            if(verboseCompiling) println("Unchanged since an earlier compile; reusing it (" + compileCache.getStatistics() + ").", progErr);
+            timings.setCached();
+            return classes;
+        }
+        if(verboseCompiling) println("Compile cache miss (" + compileCache.getStatistics() + ").", progErr);
+
+        //It may already be compiling in the background.
+        if (speculativeCompiler != null && (classes = speculativeCompiler.await(key)) != null) {
+            if(verboseCompiling) println("Picked up the background compile.", progErr);
+            timings.setCached();
+            return classes;
+        }
+
+        PrintWriter writer = new PrintWriter(new OutputStreamWriter(err));
+        ErrorReporter reporter = new ErrorReporter(program);
+        classes = compileClasses(fileName, code, writer, reporter, cancelled, timings);
+        writer.flush();
+        if (!cancelled.get()) reporter.print();
+        if (classes != null)
+            compileCache.put(key, classes);
+        return classes;
+    }
+
+    //Compiles in the shared compile daemon if there is one, or in this JVM if there isn't.
+    private static Map<String, byte[]> compileClasses(String name, String code, Writer writer, DiagnosticListener<JavaFileObject> listener,
+    AtomicBoolean cancelled, RunTimings timings) {
+        if (useCompileDaemon) {
+            try {
+                ArrayList<String> options = getCompileArguments();
+                options.add("-classpath");
+                options.add(getAbsolutePath(libraryManager.getClassPath())); //The daemon has its own working directory.
+                Map<String, byte[]> classes = CompileDaemon.compile(name, code, options, writer, listener, cancelled, timings);
+                return cancelled != null && cancelled.get() ? null : classes;
+            } catch (IOException i) {
+                if (cancelled != null && cancelled.get()) return null; //We hung up on it.
+                //No daemon (or it went away). Fall through to the local compiler.
+            }
+        }
+        return compilerService.compile(name, code, writer, listener, cancelled, timings);
+    }
+
+    //Resolves each entry of a class path against this JVM's working directory.
+    private static String getAbsolutePath(String classPath) {
+        StringBuilder path = new StringBuilder();
+        for (String entry : classPath.split(File.pathSeparator))
+            path.append(path.length() == 0 ? "" : File.pathSeparator).append(new File(entry).getAbsolutePath());
+        return path.toString();
+    }
+
+    //The options handed to javac for every compile.
+    //Libraries are added to the class path by the file manager, not here; see LibraryManager.
+    private static ArrayList<String> getCompileArguments() {
+        return splitOptions(compileOptions);
+    }
+
+    //Writes a string as a JSON string literal.
+    private static String quote(String s) {
+        StringBuilder quoted = new StringBuilder("\"");
+        for (char c : s.toCharArray()) {
+            if (c == '"' || c == '\\') quoted.append('\\').append(c);
+            else if (c == '\n') quoted.append("\\n");
+            else if (c == '\t') quoted.append("\\t");
+            else if (c < ' ') quoted.append(String.format("\\u%04x", (int)c));
+            else quoted.append(c);
+        }
+        return quoted.append('"').toString();
+    }
+
+    //Splits an options string into separate arguments, the way a shell would: on spaces, except inside quotes.
+    private static ArrayList<String> splitOptions(String options) {
+        ArrayList<String> arguments = new ArrayList<String>();
+        StringBuilder current = new StringBuilder();
+        boolean quoted = false, any = false;
+        for (char c : options.toCharArray()) {
+            if (c == '"') {
+                quoted = !quoted;
+                any = true;
+            } else if (Character.isWhitespace(c) && !quoted) {
+                if (any) arguments.add(current.toString());
+                current.setLength(0);
+                any = false;
+            } else {
+                current.append(c);
+                any = true;
+            }
+        }
+        if (any) arguments.add(current.toString());
+        return arguments;
+    }
+
+    //Where Playground keeps its caches and logs: a folder on the local disk, not the working directory.
+    //Only its owner can get into it, since the temp directory is shared with every other user on the machine.
+    private static File getWorkingDirectory() {
+        File directory = new File(System.getProperty("java.io.tmpdir"), "playground-" + System.getProperty("user.name"));
+        directory.mkdirs();
+        try {
+            java.nio.file.Files.setPosixFilePermissions(directory.toPath(),
+                java.nio.file.attribute.PosixFilePermissions.fromString("rwx------"));
+        } catch (Exception e) {
+            //Not a POSIX file system, or someone else's folder; isPrivate() catches the latter.
+        }
+        return directory;
+    }
+
+    //Whether a file belongs to this user, and (where the file system says) nobody else can read or write it.
+    private static boolean isPrivate(File file) {
+        try {
+            java.nio.file.Path path = file.toPath();
+            java.nio.file.FileSystem fs = path.getFileSystem();
+            if (!java.nio.file.Files.getOwner(path).equals(
+                    fs.getUserPrincipalLookupService().lookupPrincipalByName(System.getProperty("user.name"))))
+                return false;
+            if (fs.supportedFileAttributeViews().contains("posix")) {
+                for (java.nio.file.attribute.PosixFilePermission permission : java.nio.file.Files.getPosixFilePermissions(path))
+                    if (!permission.name().startsWith("OWNER_")) return false;
+            }
+            return true;
+        } catch (IOException i) {
+            return false;
+        }
+    }
+
+    //Where Playground's own classes live, so a child JVM can find the Launcher.
+    private static String getPlaygroundPath() {
+        try {
+            return new File(Playground.class.getProtectionDomain().getCodeSource().getLocation().toURI()).getAbsolutePath();
+        } catch (Exception e) {
+            return System.getProperty("user.dir");
+        }
+    }
+
     //Kills the JVM process and any active threads on it.
-    private static void kill() {
+    private static synchronized void kill() {
         if (redirectErr != null) {
             redirectErr.close();
             redirectErr.interrupt();
@@ -447,22 +964,61 @@ public class Playground {
         }
 
         if (JVM != null) {
-            JVM.destroy();
+            destroyTree(JVM);
             JVM = null;
         }
 
+        if (inProcess != null) {
+            inProcess.stop();
+            inProcess = null;
+        }
+
+        if (hotSwap != null) {
+            hotSwap.dispose();
+            hotSwap = null;
+        }
+
+        if (benchmark != null) {
+            benchmark.stopRun();
+            benchmark = null;
+        }
+
+        if (sweep != null) {
+            sweep.stopRun();
+            sweep = null;
+        }
+
         JVMrunning = false;
 
         println("JVM reset on " + java.util.Calendar.getInstance().getTime().toString(), progErr);
     }
 
+    //Stops a process and everything it started. The children go first, since they can't be found once the parent is gone.
+    private static void destroyTree(Process process) {
+        Iterator<ProcessHandle> descendants = process.descendants().iterator();
+        while (descendants.hasNext())
+            descendants.next().destroy();
+        process.destroy();
+    }
+
     //Adds a new Thread that links a reader to a writer. Used for linking user programs' outputs to our output.
-    private static IOHandlerThread redirectIOStream(Reader reader, TextOutputStream writer) {
-        IOHandlerThread thr = new IOHandlerThread(reader, writer);
+    private static IOHandlerThread redirectIOStream(Reader reader, TextOutputStream writer, RunTimings timings) {
+        IOHandlerThread thr = new IOHandlerThread(reader, writer, timings);
         thr.start();
         return thr;
     }
 
+    //Makes background threads that won't keep the program open once the window is closed.
+    private static ThreadFactory daemonThreads(final String name) {
+        return new ThreadFactory() {
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, name);
+                t.setDaemon(true);
+                return t;
+            }
+        };
+    }
+
     //Used in compiling to mark out "dirty" areas of the code; ie, comments and string literals.
     //These dirty areas don't get their syntax highlighted or any special treatment.
     //Also used for syntax highlighting to update comments and string literal colors.
@@ -537,170 +1093,264 @@ public class Playground {
             e.printStackTrace();
         }
     }
-    private static class FrameAction extends AbstractAction {
-        public void actionPerformed(ActionEvent a) {
-            //Note that this only works on *nix OSes.
-            //For windows, get the first character of the action command, cast it to int, and compare that on a case-by-case basis.
+    //Turns the editor's code into a class that can be compiled; either the class as it was typed,
+    //or the playground code wrapped up into a generated "Main" class.
+    private static Program transform(String code) {
+        final String source = code; //Kept for mapping errors back; "code" gets taken apart below.
+
+        //Marks certain areas as "dirty".
+        //Dirty areas are places that shouldn't be considered for any keywords,
+        //including "import", "extend", and so on.
+        ArrayList<Integer> dirtyBounds = getDirty(code);
+
+        //Not quite perfect all of the time.
+        if (code.contains("class")) {
+            //This is a bit more explicit
+            //if(text.getText().trim().substring(0, text.getText().trim().indexOf("{")).contains("class")) {
+            //This means we should try to compile this as normal.
+
+            //Pulls out class name
+            int firstPos = code.indexOf("class");
+            while(isDirty(dirtyBounds, firstPos)) 
+                firstPos = code.indexOf("class", firstPos + 1);
+
+            int secondPos = code.indexOf("{"); //No checks here because who would possibly put a comment between "class" and "{"?
+            String name = code.substring(firstPos + "class".length() + 1, secondPos).trim();
+            name = name.split("[\\s<]")[0]; //Drops "extends", "implements" and type parameters.
+
+            return new Program(name, code, source);
+        } else {
+            //This means we should compile this as a playground.
+
+            //TODO: Try to assign every line to a variable, and print it out if it's by itself. IE, saying "int i = 0" won't do anything,
+            //but then just typing "i" or "i;" would print out "0". Add support for functions, too. So "factorial(5)" by itself would 
+            //print out "120" without any fluff.
+
+            //TODO: Lazy typing. "int i = 0" should be equivilant to "i = 0"
+
+            //TODO: Less need for casting. If "int.toString()" is called, modify in-place to "(new Integer(int)).toString()"
+            //Similar for calls that need Strings but are passed primitives; "promote" them by prepending ""+ to them.
+
+            //Where each character of "code" is in the editor, for mapping errors back. Kept in step as code is cut out.
+            int[] origins = new int[code.length()];
+            for (int k = 0; k < origins.length; k++)
+                origins[k] = k;
+
+            //Common import statements built-in
+            CodeBuilder importDump = new CodeBuilder();
+            importDump.append("import java.util.*;\n" + 
+                "import javax.swing.*;\n" + 
+                "import javax.swing.event.*;\n" +
+                "import java.awt.*;\n" + 
+                "import java.awt.event.*;\n" + 
+                "import java.io.*;\n");
+
+            //User-defined or auto-generated methods
+            CodeBuilder methodDump = new CodeBuilder();
+
+            //Pulls out any "import" statements and appends them to the import dump.
+            int i = code.indexOf("import");
+            while(i >= 0) {
+                //Ignores comments and string literals
+                if (isDirty(dirtyBounds, i)) {
+                    i = code.indexOf("import", i+1);
+                    continue;
+                }
 
-            String command = a.getActionCommand();
-            if (command.equals("e")) {
-                //Log toggle.
-                if (consoleDisplayed = !consoleDisplayed) //Show
-                    splitter.setDividerLocation(defaultSliderPosition);
-                else                                      //Hide
-                    splitter.setDividerLocation(.999);
-            } else if (command.equals("r")) {
-                //Gets the code into a string.
-                String code = text.getText();
-
-                //Marks certain areas as "dirty".
-                //Dirty areas are places that shouldn't be considered for any keywords,
-                //including "import", "extend", and so on.
-                ArrayList<Integer> dirtyBounds = getDirty(code);
-
-                //Not quite perfect all of the time.
-                if (text.getText().contains("class")) {
-                    //This is a bit more explicit
-                    //if(text.getText().trim().substring(0, text.getText().trim().indexOf("{")).contains("class")) {
-                    //This means we should try to compile this as normal.
-
-                    //Pulls out class name
-                    int firstPos = code.indexOf("class");
-                    while(isDirty(dirtyBounds, firstPos)) 
-                        firstPos = code.indexOf("class", firstPos + 1);
-
-                    int secondPos = code.indexOf("{"); //No checks here because who would possibly put a comment between "class" and "{"?
-                    String name = code.substring(firstPos + "class".length() + 1, secondPos).trim();
-
-                    //Just a safety check to make sure you don't try to modify this program while it's running.
-                    if (name.equals("Playground")) {
-                        System.out.println("I know what you're doing and I don't approve. I won't even compile that.");
-                        return;
-                        //println("Self-compiling. You were warned.", warning); //Allowed users to bootstrap this program. October 26, 2014
-                    }
+                int end = code.indexOf(";", i) + 1;
+                String s = code.substring(i, end); 
+                //System.out.println("Found import: " + s);
+                importDump.append(s, origins, i);
+                importDump.append("\n");
+                code = code.substring(0, i) + code.substring(end);
+                origins = cut(origins, i, end);
+                i = code.indexOf("import", i+1);
+            }
 
-                    compileAndRun(name, code);
-                } else {
-                    //This means we should compile this as a playground.
-
-                    //TODO: Try to assign every line to a variable, and print it out if it's by itself. IE, saying "int i = 0" won't do anything,
-                    //but then just typing "i" or "i;" would print out "0". Add support for functions, too. So "factorial(5)" by itself would 
-                    //print out "120" without any fluff.
-
-                    //TODO: Lazy typing. "int i = 0" should be equivilant to "i = 0"
-
-                    //TODO: Less need for casting. If "int.toString()" is called, modify in-place to "(new Integer(int)).toString()"
-                    //Similar for calls that need Strings but are passed primitives; "promote" them by prepending ""+ to them.
-
-                    //Common import statements built-in
-                    String importDump = new String();
-                    importDump+=("import java.util.*;\n" + 
-                        "import javax.swing.*;\n" + 
-                        "import javax.swing.event.*;\n" +
-                        "import java.awt.*;\n" + 
-                        "import java.awt.event.*;\n" + 
-                        "import java.io.*;\n");
-
-                    //User-defined or auto-generated methods
-                    String methodDump = new String();
-
-                    //Pulls out any "import" statements and appends them to the import dump.
-                    int i = code.indexOf("import");
-                    while(i >= 0) {
-                        //Ignores comments and string literals
-                        if (isDirty(dirtyBounds, i)) {
-                            i = code.indexOf("import", i+1);
-                            continue;
-                        }
+            //Pulls out all methods
+            i = code.indexOf("(");
+            while(i >= 0) {
+                if (isDirty(dirtyBounds,i)) {
+                    i = code.indexOf("(", i+1); continue;
+                }
 
-                        String s = code.substring(i, code.indexOf(";", i) + 1); 
-                        //System.out.println("Found import: " + s);
-                        code = code.replaceFirst(s, "");
-                        importDump+=s+"\n";
-                        i = code.indexOf("import", i+1);
-                    }
+                //Move backwards first
+                char temp = 0; int pos = i;
+                boolean shouldSkip = false;
+                while(--pos > 0) {
+                    temp = code.charAt(pos);
+                    if (temp == '.') {shouldSkip = true; break;} //This is a method call, ie String.charAt();
+                    if (temp == ';') {++pos; break;} //This is most likely a method declaration, since we had no errors
+                    //If we hit the start of the file, that's probable a method dec. too!
+                }
 
-                    //Pulls out all methods
-                    i = code.indexOf("(");
-                    while(i >= 0) {
-                        if (isDirty(dirtyBounds,i)) {
-                            i = code.indexOf("(", i+1); continue;
-                        }
+                String sub = code.substring(pos, i);
+                if (shouldSkip || isDirty(dirtyBounds, pos) || 
+                sub.contains("while") || sub.contains("for") || sub.contains("new") || sub.contains("try") || sub.contains("catch")) 
+                {i=code.indexOf("(", i+1); continue;} //If this def. isn't a method or it's in a comment
+
+                int start = pos;
+                temp = 0; pos = code.indexOf("{", i+1);
+                int count = 1; shouldSkip = false;
+                if(pos != -1) {
+                    if (code.indexOf(";", i+1) > pos || code.indexOf(";", i+1) == -1) {
+                        while(++pos < code.length()) {
+                            if (count == 0) 
+                                break;
 
-                        //Move backwards first
-                        char temp = 0; int pos = i;
-                        boolean shouldSkip = false;
-                        while(--pos > 0) {
                             temp = code.charAt(pos);
-                            if (temp == '.') {shouldSkip = true; break;} //This is a method call, ie String.charAt();
-                            if (temp == ';') {++pos; break;} //This is most likely a method declaration, since we had no errors
-                            //If we hit the start of the file, that's probable a method dec. too!
+                            if (temp == '{') 
+                                count++;
+                            if (temp == '}') 
+                                count--;
                         }
+                    } else {
+                        //If there's a semicolon between the opening paranthesis and opening curly brace, this isn't a method!
+                        i = code.indexOf("(", i+1);
+                        continue;
+                    }
+                } else {
+                    i = code.indexOf("(", i+1);
+                    continue;
+                }
 
-                        String sub = code.substring(pos, i);
-                        if (shouldSkip || isDirty(dirtyBounds, pos) || 
-                        sub.contains("while") || sub.contains("for") || sub.contains("new") || sub.contains("try") || sub.contains("catch")) 
-                        {i=code.indexOf("(", i+1); continue;} //If this def. isn't a method or it's in a comment
-
-                        int start = pos;
-                        temp = 0; pos = code.indexOf("{", i+1);
-                        int count = 1; shouldSkip = false;
-                        if(pos != -1) {
-                            if (code.indexOf(";", i+1) > pos || code.indexOf(";", i+1) == -1) {
-                                while(++pos < code.length()) {
-                                    if (count == 0) 
-                                        break;
-
-                                    temp = code.charAt(pos);
-                                    if (temp == '{') 
-                                        count++;
-                                    if (temp == '}') 
-                                        count--;
-                                }
-                            } else {
-                                //If there's a semicolon between the opening paranthesis and opening curly brace, this isn't a method!
-                                i = code.indexOf("(", i+1);
-                                continue;
-                            }
-                        } else {
-                            i = code.indexOf("(", i+1);
-                            continue;
-                        }
+                int end = pos;
+                String s = code.substring(start,end);
 
-                        int end = pos;
-                        String s = code.substring(start,end);
-                        code = code.replace(s, ""); 
+                //Just to make it look nicer
+                String trimmed = s.trim();
+                int from = start + s.indexOf(trimmed);
 
-                        //Just to make it look nicer
-                        s = s.trim();
+                //println("Found method: " + s);
 
-                        //println("Found method: " + s);
+                //This makes using the method intuitive by effectively removing the need for static modifiers
+                if (!trimmed.substring(0,trimmed.indexOf("(")).contains("static")) {
+                    methodDump.append("static ");
+                    //println("Silently adding 'static' modifier", warning);
+                }
 
-                        //This makes using the method intuitive by effectively removing the need for static modifiers
-                        if (!s.substring(0,s.indexOf("(")).contains("static")) {
-                            s = "static " + s;
-                            //println("Silently adding 'static' modifier", warning);
-                        }
+                methodDump.append(trimmed, origins, from);
+                methodDump.append("\n");
+                code = code.substring(0, start) + code.substring(end);
+                origins = cut(origins, start, end);
+                i = code.indexOf("(", i+1);
+            }
 
-                        methodDump+=(s + "\n");
-                        i = code.indexOf("(", i+1);
-                    }
+            //Inject the class header and main method, imports, and methods
+            CodeBuilder generated = new CodeBuilder();
+            generated.append("//User and auto-imports pre-defined\n");
+            generated.append(importDump);
+            generated.append("//Autogenerated class\n"
+                + "public class Main {\n" 
+                + "public static void main(String[] args) {\n");
+            generated.append(code, origins, 0);
+            generated.append("\n}\n");
+            generated.append(methodDump);
+            generated.append("}");
+
+            //Run as normal
+            return new Program("Main", generated.toString(), source, generated.getOrigins());
+        }
+    }
 
-                    //Inject the class header and main method, imports, and methods
-                    code = "//User and auto-imports pre-defined\n"
-                    + importDump
-                    + "//Autogenerated class\n"
-                    + "public class Main {\n" 
-                    + "public static void main(String[] args) {\n"
-                    + code
-                    + "\n}\n"
-                    + methodDump 
-                    + "}";
+    //Removes the range [start, end) from an array.
+    private static int[] cut(int[] array, int start, int end) {
+        int[] cut = new int[array.length - (end - start)];
+        System.arraycopy(array, 0, cut, 0, start);
+        System.arraycopy(array, end, cut, start, array.length - end);
+        return cut;
+    }
 
-                    //Run as normal
-                    compileAndRun("Main", code);
-                }
+    /**
+     * Puts generated code together, remembering where in the editor each character came from (-1 for the parts
+     * that were made up, like the class header), so errors in the generated class can be shown in the editor.
+     */
+    private static class CodeBuilder {
+        private final StringBuilder code = new StringBuilder();
+        private int[] origins = new int[256];
+
+        //Adds code that isn't from the editor.
+        void append(String s) {
+            append(s, null, 0);
+        }
+
+        //Adds code whose characters came from origins[from], origins[from + 1] and so on.
+        void append(String s, int[] origins, int from) {
+            int length = code.length();
+            if (length + s.length() > this.origins.length)
+                this.origins = Arrays.copyOf(this.origins, Math.max(2 * this.origins.length, length + s.length()));
+            for (int k = 0; k < s.length(); k++)
+                this.origins[length + k] = origins == null ? -1 : origins[from + k];
+            code.append(s);
+        }
+
+        void append(CodeBuilder other) {
+            append(other.toString(), other.origins, 0);
+        }
+
+        int[] getOrigins() {
+            return Arrays.copyOf(origins, code.length());
+        }
+
+        public String toString() {
+            return code.toString();
+        }
+    }
+
+    //Finds where a position in the generated class came from in the editor, or -1 if it isn't from there (the
+    //auto-imports and class header, for instance).
+    private static int toEditorOffset(Program program, long position) {
+        if (position < 0 || position > program.code.length()) return -1;
+        if (program.origins == null) return (int)position;
+        int offset = position < program.origins.length ? program.origins[(int)position] : -1;
+        //javac puts "';' expected" just past the last token, which can be a newline the transform added.
+        if (offset < 0 && position > 0 && program.origins[(int)position - 1] >= 0)
+            offset = program.origins[(int)position - 1] + 1;
+        return offset;
+    }
+
+    //Maps a line of the generated code back to the editor's line, or -1 if none of it is from the editor.
+    private static int toEditorLine(Program program, int line) {
+        int position = 0;
+        for (int i = 1; i < line; i++) {
+            position = program.code.indexOf('\n', position) + 1;
+            if (position == 0) return -1;
+        }
+        //The first character that came from the editor; a method's line starts with a "static " that didn't.
+        for (; position < program.code.length() && program.code.charAt(position) != '\n'; position++) {
+            int offset = program.origins == null ? position : program.origins[position];
+            if (offset < 0) continue;
+            int editorLine = 1;
+            for (int i = 0; i < offset; i++)
+                if (program.source.charAt(i) == '\n') editorLine++;
+            return editorLine;
+        }
+        return -1;
+    }
+
+    private static class FrameAction extends AbstractAction {
+        public void actionPerformed(ActionEvent a) {
+            //Note that this only works on *nix OSes.
+            //For windows, get the first character of the action command, cast it to int, and compare that on a case-by-case basis.
+
+            String command = a.getActionCommand();
+            if (command.equals("e")) {
+                //Log toggle.
+                if (consoleDisplayed = !consoleDisplayed) //Show
+                    splitter.setDividerLocation(defaultSliderPosition);
+                else                                      //Hide
+                    splitter.setDividerLocation(.999);
+            } else if (command.equals("r")) {
+                //Everything past grabbing the text happens on the run pipeline's thread.
+                runPipeline.run(text.getText());
+            } else if (command.equals("p")) {
+                runPipeline.run(text.getText(), RunPipeline.PROFILE);
+            } else if (command.equals("b")) {
+                runPipeline.run(text.getText(), RunPipeline.BENCHMARK);
+            } else if (command.equals("g")) {
+                runPipeline.run(text.getText(), RunPipeline.SWEEP);
             } else if (command.equals("k")) {
+                runPipeline.cancel();
                 kill();  
             } else if (command.equals("o")) {
                 of = new OptionFrame(frame);
@@ -770,31 +1420,3095 @@ public class Playground {
     new Reloader().loadClass("Main");
     }
 
-    public Class<?> loadClass(String s) {
-    return findClass(s);
+    public Class<?> loadClass(String s) {
+    return findClass(s);
+    }
+
+    public Class<?> findClass(String s) {
+    try {
+    byte[] bytes = loadClassData(s);
+    return defineClass(s, bytes, 0, bytes.length);
+    } catch (IOException ioe) {
+    try {
+    return super.loadClass(s);
+    } catch (ClassNotFoundException ignore) { }
+    ioe.printStackTrace(System.out);
+    return null;
+    }
+    }
+
+    private byte[] loadClassData(String className) throws IOException {
+    Playground.println("Loading class " + className + ".class", warning);
+    File f = new File(System.getProperty("user.dir") + "/" + className + ".class");
+    byte[] b = new byte[(int) f.length()];
+    new FileInputStream(f).read(b);
+    return b;
+    }
+    }*/
+
+    /**
+     * A class ready to be handed to the compiler: its name, its full source code, and the editor code it
+     * was generated from (the same thing when a whole class was typed in).
+     */
+    private static class Program {
+        final String name;
+        final String code;
+        final String source;
+        final int[] origins; //Where each character of code is in source, or -1; null when code is source
+
+        Program(String name, String code, String source) {
+            this(name, code, source, null);
+        }
+
+        Program(String name, String code, String source, int[] origins) {
+            this.name = name;
+            this.code = code;
+            this.source = source;
+            this.origins = origins;
+        }
+    }
+
+    /**
+     * Runs programs off the Event Dispatch Thread, one stage after another (transform, compile, launch), so the
+     * window keeps responding while javac works. A new Cmd+R supersedes any run that hasn't launched yet, so
+     * mashing the key only ever runs the latest code. Cmd+K cancels a run that's still compiling.
+     */
+    private static class RunPipeline {
+        static final int NORMAL = 0, PROFILE = 1, BENCHMARK = 2, SWEEP = 3; //Kinds of run
+
+        private final ExecutorService executor = Executors.newSingleThreadExecutor(daemonThreads("Run pipeline"));
+        private AtomicBoolean cancelled = new AtomicBoolean();
+
+        //Queues up a run of the given code.
+        void run(String code) {
+            run(code, NORMAL);
+        }
+
+        synchronized void run(final String code, final int mode) {
+            cancelled.set(true);
+            final AtomicBoolean flag = cancelled = new AtomicBoolean();
+            executor.execute(new Runnable() {
+                    public void run() {
+                        if (flag.get()) return; //A newer run already took over.
+                        libraryManager.refresh(); //A library folder may have been rebuilt since the last run.
+
+                        if(verboseCompiling) println("Generating class...", progErr);
+                        Program program = transform(code);
+
+                        //Just a safety check to make sure you don't try to modify this program while it's running.
+                        if (program.name.equals("Playground")) {
+                            System.out.println("I know what you're doing and I don't approve. I won't even compile that.");
+                            return;
+                            //println("Self-compiling. You were warned.", warning); //Allowed users to bootstrap this program. October 26, 2014
+                        }
+
+                        compileAndRun(program, flag, mode);
+                    }
+                });
+        }
+
+        //Stops any run that hasn't launched its program yet.
+        synchronized void cancel() {
+            cancelled.set(true);
+        }
+    }
+
+    /**
+     * Compiles in the background while the user types, so the classes are usually sitting in the compile cache
+     * by the time Cmd+R is pressed. Every edit restarts the idle timer and cancels any compile of older text.
+     */
+    private static class SpeculativeCompiler {
+        static final int IDLE_DELAY = 600; //Milliseconds without an edit before compiling
+
+        private final javax.swing.Timer timer;
+        private final ExecutorService executor = Executors.newSingleThreadExecutor(daemonThreads("Speculative compiler"));
+        private AtomicBoolean cancelled = new AtomicBoolean();
+        private AtomicReference<String> currentKey; //Of the code being compiled; empty until the task has worked it out
+        private CountDownLatch keyed; //Counted down once the task has worked out currentKey, or given up
+        private Future<Map<String, byte[]>> current;
+
+        SpeculativeCompiler() {
+            timer = new javax.swing.Timer(IDLE_DELAY, new ActionListener() {
+                    public void actionPerformed(ActionEvent a) {start(text.getText());}
+                });
+            timer.setRepeats(false);
+        }
+
+        //Called on every edit to the code.
+        synchronized void edited() {
+            cancelled.set(true);
+            timer.restart();
+        }
+
+        //Runs on the Event Dispatch Thread, so everything past reading the text (the transform, hashing it for the
+        //cache key) happens in the background.
+        private synchronized void start(final String code) {
+            if (!speculativeCompiling || !inMemoryCompiling || compilerService == null)
+                return;
+
+            final AtomicBoolean flag = cancelled = new AtomicBoolean();
+            final CountDownLatch latch = keyed = new CountDownLatch(1);
+            final AtomicReference<String> taskKey = currentKey = new AtomicReference<String>();
+            current = executor.submit(new Callable<Map<String, byte[]>>() {
+                    public Map<String, byte[]> call() {
+                        String key;
+                        Program program;
+                        try {
+                            if (flag.get()) return null;
+                            try {
+                                program = transform(code);
+                            } catch (RuntimeException e) {
+                                return null; //Half-typed code can trip up the transform. Cmd+R will report it properly.
+                            }
+                            if (program.name.equals("Playground"))
+                                return null;
+                            key = CompileCache.key(program.name, program.code);
+                            if (compileCache.contains(key))
+                                return null;
+                            taskKey.set(key);
+                        } finally {
+                            latch.countDown();
+                        }
+                        Map<String, byte[]> classes = compileClasses(program.name, program.code, new StringWriter(), null, flag, null);
+                        if (classes != null) compileCache.put(key, classes);
+                        return classes;
+                    }
+                });
+        }
+
+        //Waits for a background compile of the same program and returns its classes. Anything else is cancelled,
+        //so it doesn't hold up the real compile. Returns null if there was nothing useful to wait for.
+        Map<String, byte[]> await(String key) {
+            Future<Map<String, byte[]>> f;
+            CountDownLatch latch;
+            AtomicReference<String> taskKey;
+            AtomicBoolean flag;
+            synchronized (this) {
+                timer.stop();
+                f = current;
+                latch = keyed;
+                taskKey = currentKey;
+                flag = cancelled;
+            }
+            try {
+                if (f == null) return null;
+                latch.await(); //Only as long as the transform and the hash take.
+                if (!key.equals(taskKey.get())) {
+                    flag.set(true);
+                    return null;
+                }
+                return f.get();
+            } catch (Exception e) {
+                return null;
+            }
+        }
+    }
+
+    /**
+     * Checks the syntax shortly after each burst of typing and underlines any errors in the editor, with the
+     * message as a tooltip. Only javac's parser is run, which takes milliseconds instead of a whole compile.
+     */
+    private static class SyntaxChecker {
+        static final int IDLE_DELAY = 250; //Milliseconds without an edit before checking
+        static final Highlighter.HighlightPainter painter = new SquigglePainter(Color.RED);
+
+        private final javax.swing.Timer timer;
+        private final ExecutorService executor = Executors.newSingleThreadExecutor(daemonThreads("Syntax checker"));
+        private final StandardJavaFileManager manager;
+        private final Map<Object, String> squiggles = new LinkedHashMap<Object, String>(); //Highlight tags and their messages
+
+        SyntaxChecker() {
+            manager = compiler.getStandardFileManager(null, null, null);
+            timer = new javax.swing.Timer(IDLE_DELAY, new ActionListener() {
+                    public void actionPerformed(ActionEvent a) {start();}
+                });
+            timer.setRepeats(false);
+
+            text.addMouseMotionListener(new MouseMotionAdapter() {
+                    public void mouseMoved(MouseEvent m) {
+                        text.setToolTipText(getMessage(text.viewToModel2D(m.getPoint())));
+                    }
+                });
+        }
+
+        //Called on every edit to the code, always on the Event Dispatch Thread.
+        void edited() {
+            timer.restart();
+        }
+
+        private void start() {
+            final String code = text.getText();
+            if (!syntaxChecking) {
+                underline(code, new ArrayList<int[]>(), new ArrayList<String>());
+                return;
+            }
+            executor.execute(new Runnable() {
+                    public void run() {check(code);}
+                });
+        }
+
+        //Parses the code (or the class generated from it) and works out where the errors are in the editor.
+        private void check(String code) {
+            Program program;
+            try {
+                program = transform(code);
+            } catch (RuntimeException e) {
+                program = new Program("Main", code, code); //Half-typed code can trip up the transform.
+            }
+
+            DiagnosticCollector<JavaFileObject> diagnostics = new DiagnosticCollector<JavaFileObject>();
+            JavacTask task = (JavacTask)compiler.getTask(new StringWriter(), manager, diagnostics, null, null,
+                    Arrays.asList(new MemorySource(program.name, program.code)));
+            try {
+                task.parse();
+            } catch (IOException i) {
+                return;
+            }
+
+            ArrayList<int[]> bounds = new ArrayList<int[]>();
+            ArrayList<String> messages = new ArrayList<String>();
+            for (Diagnostic<? extends JavaFileObject> d : diagnostics.getDiagnostics()) {
+                if (d.getKind() != Diagnostic.Kind.ERROR) continue;
+                int start = toEditorOffset(program, d.getStartPosition());
+                if (start < 0) continue;
+                int length = (int)Math.max(1, d.getEndPosition() - d.getStartPosition());
+                start = Math.max(0, Math.min(start, code.length() - 1)); //Errors at the very end go on the last character
+                bounds.add(new int[]{start, Math.min(start + length, code.length())});
+                messages.add(d.getMessage(null));
+            }
+            underline(code, bounds, messages);
+        }
+
+        //Swaps the old squiggles for new ones, unless the text has changed since "code" was checked.
+        //Also used for the errors from a full compile.
+        void underline(final String code, final ArrayList<int[]> bounds, final ArrayList<String> messages) {
+            SwingUtilities.invokeLater(new Runnable() {
+                    public void run() {
+                        if (!text.getText().equals(code)) return;
+                        Highlighter highlighter = text.getHighlighter();
+                        for (Object tag : squiggles.keySet())
+                            highlighter.removeHighlight(tag);
+                        squiggles.clear();
+                        for (int i = 0; i < bounds.size(); i++) {
+                            try {
+                                squiggles.put(highlighter.addHighlight(bounds.get(i)[0], bounds.get(i)[1], painter), messages.get(i));
+                            } catch (BadLocationException b) {}
+                        }
+                    }
+                });
+        }
+
+        //The message for an error underlined at the given offset, or null if there isn't one.
+        private String getMessage(int offset) {
+            for (Map.Entry<Object, String> e : squiggles.entrySet()) {
+                Highlighter.Highlight h = (Highlighter.Highlight)e.getKey();
+                if (offset >= h.getStartOffset() && offset <= h.getEndOffset())
+                    return e.getValue();
+            }
+            return null;
+        }
+    }
+
+    /**
+     * Paints a wavy underline, like a spell checker, instead of the usual highlight box.
+     */
+    private static class SquigglePainter extends DefaultHighlighter.DefaultHighlightPainter {
+        SquigglePainter(Color color) {
+            super(color);
+        }
+
+        public Shape paintLayer(Graphics g, int offs0, int offs1, Shape bounds, JTextComponent c, View view) {
+            Rectangle r;
+            try {
+                Shape s = view.modelToView(offs0, Position.Bias.Forward, offs1, Position.Bias.Backward, bounds);
+                r = s instanceof Rectangle ? (Rectangle)s : s.getBounds();
+            } catch (BadLocationException b) {
+                return null;
+            }
+            g.setColor(getColor());
+            int y = r.y + r.height - 2;
+            for (int x = r.x; x < r.x + r.width; x += 4) {
+                g.drawLine(x, y, x + 2, y - 2);
+                g.drawLine(x + 2, y - 2, x + 4, y);
+            }
+            return r;
+        }
+    }
+
+    /**
+     * Where the time goes in one run: javac's phases (through a TaskListener on the compile task), writing the
+     * source file, spawning the JVM, and waiting for the program's first output. When the program exits, the
+     * breakdown is printed in the verbose console and appended as a line of JSON to timings.log.
+     */
+    private static class RunTimings implements TaskListener {
+        static final int PARSE = 0, ENTER = 1, ANALYZE = 2, GENERATE = 3, WRITE = 4, SPAWN = 5, FIRST_OUTPUT = 6, MAIN = 7;
+        static final String[] NAMES = {"parse", "enter", "analyze", "generate", "write", "spawn", "firstOutput", "main"};
+
+        private final String name;
+        private final long[] totals = new long[NAMES.length];
+        private final long[] starts = new long[NAMES.length];
+        private final boolean[] measured = new boolean[NAMES.length];
+        private boolean cached;
+        private final Map<String, String> metrics = new TreeMap<String, String>(); //Reported by the program's JVM
+
+        RunTimings(String name) {
+            this.name = name;
+        }
+
+        synchronized void start(int phase) {
+            starts[phase] = System.nanoTime();
+        }
+
+        //Phases can happen more than once (javac analyzes and generates each class separately), so they add up.
+        synchronized void stop(int phase) {
+            totals[phase] += System.nanoTime() - starts[phase];
+            measured[phase] = true;
+        }
+
+        //Time measured somewhere else, like in the compile daemon.
+        synchronized void add(int phase, long nanos) {
+            totals[phase] += nanos;
+            measured[phase] = true;
+        }
+
+        //The total for a phase in nanoseconds, or -1 if it was never measured.
+        synchronized long getTotal(int phase) {
+            return measured[phase] ? totals[phase] : -1;
+        }
+
+        synchronized void setMetric(String name, String value) {
+            metrics.put(name, value);
+        }
+
+        //The classes came from the compile cache, so javac never ran.
+        synchronized void setCached() {
+            cached = true;
+        }
+
+        //Called by the output threads on every read; only the first one counts.
+        synchronized void output() {
+            if (!measured[FIRST_OUTPUT] && starts[SPAWN] != 0)
+                stop(FIRST_OUTPUT);
+        }
+
+        synchronized void launched() {
+            starts[FIRST_OUTPUT] = starts[SPAWN];
+        }
+
+        public void started(TaskEvent e) {
+            int phase = getPhase(e.getKind());
+            if (phase >= 0) start(phase);
+        }
+
+        public void finished(TaskEvent e) {
+            int phase = getPhase(e.getKind());
+            if (phase >= 0) stop(phase);
+        }
+
+        private static int getPhase(TaskEvent.Kind kind) {
+            switch (kind) {
+                case PARSE: return PARSE;
+                case ENTER: return ENTER;
+                case ANALYZE: return ANALYZE;
+                case GENERATE: return GENERATE;
+                default: return -1;
+            }
+        }
+
+        //Reports the run once the program has exited.
+        synchronized void finish(int exitCode) {
+            StringBuilder console = new StringBuilder("Timings for " + name + (cached ? " (cached compile)" : "") + ":");
+            for (int i = 0; i < NAMES.length; i++) {
+                if (measured[i])
+                    console.append(" " + NAMES[i] + " " + String.format(Locale.ROOT, "%.1f", totals[i] / 1e6) + "ms");
+            }
+            for (Map.Entry<String, String> e : metrics.entrySet())
+                console.append(" " + e.getKey() + " " + e.getValue());
+
+            if(verboseCompiling) println(console.toString(), progErr);
+            log(toJson(exitCode));
+        }
+
+        //The run as a line of JSON, the way timings.log keeps it.
+        synchronized String toJson(int exitCode) {
+            StringBuilder json = new StringBuilder("{\"time\":" + System.currentTimeMillis() + ",\"class\":\"" + name + "\"");
+            json.append(",\"memory\":" + inMemoryCompiling + ",\"cached\":" + cached + ",\"exit\":" + exitCode);
+            for (int i = 0; i < NAMES.length; i++) {
+                if (measured[i])
+                    json.append(",\"" + NAMES[i] + "\":" + String.format(Locale.ROOT, "%.1f", totals[i] / 1e6));
+            }
+            for (Map.Entry<String, String> e : metrics.entrySet())
+                json.append(",\"" + e.getKey() + "\":" + e.getValue());
+            return json.append("}").toString();
+        }
+
+        private static synchronized void log(String line) {
+            try {
+                FileWriter writer = new FileWriter(new File(getWorkingDirectory(), "timings.log"), true);
+                writer.append(line + "\n").close();
+            } catch (IOException i) {
+                //Timings are nice to have; not worth bothering the user about.
+            }
+        }
+    }
+
+    /**
+     * The jars and class folders that programs can use. The class paths for javac and for the child JVM are both
+     * built from this list. The jars stay open in the compiler's file manager between compiles, instead of having
+     * their zip directories re-read every run; javac finds packages through those open jars, so nothing here
+     * indexes them again.
+     */
+    private static class LibraryManager {
+        private final Map<File, Long> libraries = new LinkedHashMap<File, Long>(); //Libraries and their stamps
+
+        //Registers a library. Returns false if it couldn't be read.
+        boolean add(File library) {
+            library = library.getAbsoluteFile();
+            long stamp;
+            try {
+                check(library);
+                stamp = getStamp(library);
+            } catch (IOException i) {
+                return false;
+            }
+            synchronized (this) {
+                libraries.put(library, stamp);
+            }
+            if (compilerService != null) compilerService.reset(); //Picks up the new class path.
+            return true;
+        }
+
+        void remove(File library) {
+            synchronized (this) {
+                libraries.remove(library.getAbsoluteFile());
+            }
+            if (compilerService != null) compilerService.reset();
+        }
+
+        synchronized ArrayList<File> getLibraries() {
+            return new ArrayList<File>(libraries.keySet());
+        }
+
+        //What javac compiles against: the working directory, as before, then every library.
+        synchronized ArrayList<File> getCompileClassPath() {
+            ArrayList<File> path = new ArrayList<File>();
+            path.add(new File("."));
+            path.addAll(libraries.keySet());
+            return path;
+        }
+
+        //The same thing, as a -cp argument for a child JVM.
+        synchronized String getClassPath() {
+            StringBuilder path = new StringBuilder(".");
+            for (File library : libraries.keySet())
+                path.append(File.pathSeparator).append(library.getPath());
+            return path.toString();
+        }
+
+        //Changes whenever a library is added, removed or rebuilt (as of the last refresh()), for the cache keys.
+        synchronized String getSignature() {
+            StringBuilder signature = new StringBuilder();
+            for (Map.Entry<File, Long> e : libraries.entrySet())
+                signature.append(e.getKey().getPath()).append('@').append(Long.toHexString(e.getValue())).append(File.pathSeparator);
+            return signature.toString();
+        }
+
+        //Stamps the libraries again. A folder has to be walked for it, so this is only done once per Cmd+R,
+        //off the Event Dispatch Thread, and never for the keys of speculative compiles or cached results.
+        void refresh() {
+            for (File library : getLibraries()) {
+                try {
+                    long stamp = getStamp(library);
+                    synchronized (this) {
+                        if (libraries.containsKey(library)) libraries.put(library, stamp);
+                    }
+                } catch (IOException i) {
+                    //Gone, probably. The compile will say so.
+                }
+            }
+        }
+
+        //A jar's time and size, or for a folder, the names, times and sizes of everything in it. A folder's own
+        //time doesn't change when a class file in it is rewritten. Symbolic links aren't followed, so a loop
+        //can't go on forever.
+        private static long getStamp(File library) throws IOException {
+            if (!library.isDirectory())
+                return library.lastModified() * 31 + library.length();
+            final java.nio.file.Path root = library.toPath();
+            final long[] stamp = {0};
+            java.nio.file.Files.walkFileTree(root, new java.nio.file.SimpleFileVisitor<java.nio.file.Path>() {
+                    public java.nio.file.FileVisitResult visitFile(java.nio.file.Path file,
+                    java.nio.file.attribute.BasicFileAttributes attributes) {
+                        //Added up, so the order the files come in doesn't matter.
+                        stamp[0] += (root.relativize(file).toString().hashCode() * 31L + attributes.lastModifiedTime().toMillis())
+                            * 31 + attributes.size();
+                        return java.nio.file.FileVisitResult.CONTINUE;
+                    }
+
+                    public java.nio.file.FileVisitResult visitFileFailed(java.nio.file.Path file, IOException e) {
+                        return java.nio.file.FileVisitResult.CONTINUE;
+                    }
+                });
+            return stamp[0];
+        }
+
+        //For the settings file.
+        synchronized String save() {
+            StringBuilder saved = new StringBuilder();
+            for (File library : libraries.keySet())
+                saved.append(saved.length() == 0 ? "" : File.pathSeparator).append(library.getPath());
+            return saved.toString();
+        }
+
+        void load(String saved) {
+            for (String path : saved.split(File.pathSeparator))
+                if (!path.isEmpty() && !add(new File(path)))
+                    println("Couldn't read the library " + path + ". Leaving it out.", warning);
+        }
+
+        //Throws an IOException unless the library is a folder or a readable jar.
+        private static void check(File library) throws IOException {
+            if (!library.isDirectory())
+                new java.util.zip.ZipFile(library).close();
+        }
+    }
+
+    /**
+     * A compile server shared by every Playground on the machine, so a lab full of windows keeps one warm javac
+     * instead of one each. Start it with "java Playground -daemon"; it listens on a Unix domain socket in the user's
+     * working directory, which only they can get into. Playground compiles through it when it's there, and quietly
+     * compiles in-process when it isn't. A client hanging up cancels its compile.
+     */
+    private static class CompileDaemon {
+        static final File SOCKET = new File(getWorkingDirectory(), "compiler.sock");
+        static final int SERVICES = 8; //Warm compilers kept, one per set of options, each holding its jars open
+        static final int HANGUP_CHECK = 50; //Milliseconds between looks at a client's "cancelled" flag
+        private static final ScheduledExecutorService hangups = Executors.newSingleThreadScheduledExecutor(daemonThreads("Daemon hang-up"));
+
+        //Runs the daemon until it's killed.
+        static void serve() throws IOException {
+            final JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+            if (compiler == null) {
+                System.out.println("Fatal Error: JDK not installed. Go to java.sun.com and install.");
+                return;
+            }
+            if (!isPrivate(SOCKET.getParentFile())) {
+                System.out.println("Won't listen in " + SOCKET.getParent() + ": other users can get into it.");
+                return;
+            }
+            if (isRunning()) {
+                System.out.println("A compile daemon is already listening on " + SOCKET);
+                return;
+            }
+            SOCKET.delete(); //Left behind by a daemon that didn't shut down cleanly.
+            ServerSocketChannel server = ServerSocketChannel.open(StandardProtocolFamily.UNIX);
+            server.bind(UnixDomainSocketAddress.of(SOCKET.getPath()));
+            SOCKET.deleteOnExit();
+
+            //One warm compiler per set of options, most recently used last; each one compiles a program at a time.
+            final Map<String, CompilerService> services = new LinkedHashMap<String, CompilerService>(16, .75f, true);
+            ExecutorService workers = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
+            System.out.println("Compile daemon listening on " + SOCKET);
+            while (true) {
+                final SocketChannel client = server.accept();
+                workers.execute(new Runnable() {
+                        public void run() {
+                            try {
+                                handle(client, compiler, services);
+                            } catch (IOException i) {
+                                System.out.println("Lost a client: " + i);
+                            } finally {
+                                try {client.close();} catch (IOException i) {}
+                            }
+                        }
+                    });
+            }
+        }
+
+        //Answers one compile request. The request is the class name, the code and the compile options; the answer is
+        //the diagnostics, anything else javac printed, the time spent in each compile phase, and the classes if it
+        //compiled. The client sends nothing after its request, so if the connection closes early, it's given up.
+        private static void handle(final SocketChannel client, JavaCompiler compiler, Map<String, CompilerService> services) throws IOException {
+            DataInputStream in = new DataInputStream(new BufferedInputStream(Channels.newInputStream(client)));
+            String name = readString(in), code = readString(in);
+            ArrayList<String> options = new ArrayList<String>();
+            for (int count = in.readInt(); count > 0; count--)
+                options.add(readString(in));
+            final AtomicBoolean cancelled = new AtomicBoolean();
+            Thread hangup = new Thread("Hangup watcher") {
+                    public void run() {
+                        try {
+                            client.read(java.nio.ByteBuffer.allocate(1)); //Not through the stream, which would hold the channel's lock
+                        } catch (IOException i) {
+                            //Closed once the answer's been sent.
+                        }
+                        cancelled.set(true);
+                    }
+                };
+            hangup.setDaemon(true);
+            hangup.start();
+
+            CompilerService service, evicted = null;
+            synchronized (services) {
+                String key = options.toString();
+                service = services.get(key);
+                if (service == null) {
+                    services.put(key, service = new CompilerService(compiler, options));
+                    if (services.size() > SERVICES) {
+                        Iterator<CompilerService> eldest = services.values().iterator();
+                        evicted = eldest.next();
+                        eldest.remove();
+                    }
+                }
+            }
+            if (evicted != null) evicted.close(); //Once it's done with any compile it's in the middle of.
+            DiagnosticCollector<JavaFileObject> diagnostics = new DiagnosticCollector<JavaFileObject>();
+            StringWriter writer = new StringWriter();
+            RunTimings timings = new RunTimings(name);
+            Map<String, byte[]> classes = service.compile(name, code, writer, diagnostics, cancelled, timings);
+            if (cancelled.get()) return;
+
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(client)));
+            out.writeInt(diagnostics.getDiagnostics().size());
+            for (Diagnostic<? extends JavaFileObject> d : diagnostics.getDiagnostics()) {
+                out.writeUTF(d.getKind().name());
+                out.writeLong(d.getPosition());
+                out.writeLong(d.getStartPosition());
+                out.writeLong(d.getEndPosition());
+                out.writeLong(d.getLineNumber());
+                out.writeLong(d.getColumnNumber());
+                writeString(out, d.getMessage(null));
+            }
+            writeString(out, writer.toString());
+            for (int phase = RunTimings.PARSE; phase <= RunTimings.GENERATE; phase++)
+                out.writeLong(timings.getTotal(phase));
+            out.writeBoolean(classes != null);
+            if (classes != null)
+                Launcher.writeClasses(out, classes);
+            out.flush();
+        }
+
+        //Compiles through the daemon. Returns the classes, or null if they didn't compile, with the diagnostics
+        //handed to the listener (or printed to the writer if there isn't one) and the phase times added to the
+        //timings. Hangs up (which stops the daemon's compile) once "cancelled" is set; either of those can be null.
+        //Throws an IOException if there's no daemon to talk to.
+        static Map<String, byte[]> compile(String name, String code, ArrayList<String> options, Writer writer,
+        DiagnosticListener<JavaFileObject> listener, final AtomicBoolean cancelled, RunTimings timings) throws IOException {
+            if (!isPrivate(SOCKET.getParentFile()))
+                throw new IOException(SOCKET.getParent() + " isn't private");
+            final SocketChannel channel = SocketChannel.open(StandardProtocolFamily.UNIX);
+            ScheduledFuture<?> watcher = null;
+            if (cancelled != null) {
+                watcher = hangups.scheduleAtFixedRate(new Runnable() {
+                        public void run() {
+                            if (cancelled.get()) {
+                                try {channel.close();} catch (IOException i) {}
+                            }
+                        }
+                    }, HANGUP_CHECK, HANGUP_CHECK, TimeUnit.MILLISECONDS);
+            }
+            try {
+                channel.connect(UnixDomainSocketAddress.of(SOCKET.getPath()));
+                DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(channel)));
+                writeString(out, name);
+                writeString(out, code);
+                out.writeInt(options.size());
+                for (String option : options)
+                    writeString(out, option);
+                out.flush();
+
+                DataInputStream in = new DataInputStream(new BufferedInputStream(Channels.newInputStream(channel)));
+                for (int count = in.readInt(); count > 0; count--) {
+                    RemoteDiagnostic d = new RemoteDiagnostic(Diagnostic.Kind.valueOf(in.readUTF()), in.readLong(), in.readLong(),
+                            in.readLong(), in.readLong(), in.readLong(), readString(in));
+                    if (listener != null) listener.report(d);
+                    else writer.write(name + ".java:" + d.getLineNumber() + ": " + d.getMessage(null) + "\n");
+                }
+                writer.write(readString(in));
+                for (int phase = RunTimings.PARSE; phase <= RunTimings.GENERATE; phase++) {
+                    long total = in.readLong();
+                    if (timings != null && total >= 0) timings.add(phase, total);
+                }
+                return in.readBoolean() ? Launcher.readClasses(in) : null;
+            } finally {
+                if (watcher != null) watcher.cancel(false);
+                channel.close();
+            }
+        }
+
+        static boolean isRunning() {
+            if (!SOCKET.exists() || !isPrivate(SOCKET.getParentFile())) return false;
+            try {
+                SocketChannel.open(UnixDomainSocketAddress.of(SOCKET.getPath())).close();
+                return true;
+            } catch (IOException i) {
+                return false;
+            }
+        }
+
+        //Strings can be longer than writeUTF allows, so they're sent as length-prefixed UTF-8.
+        private static void writeString(DataOutputStream out, String s) throws IOException {
+            byte[] bytes = s.getBytes("UTF-8");
+            out.writeInt(bytes.length);
+            out.write(bytes);
+        }
+
+        private static String readString(DataInputStream in) throws IOException {
+            byte[] bytes = new byte[in.readInt()];
+            in.readFully(bytes);
+            return new String(bytes, "UTF-8");
+        }
+    }
+
+    /**
+     * A diagnostic that came back from the compile daemon. There's no source object on this side,
+     * but the positions and message are all the ErrorReporter needs.
+     */
+    private static class RemoteDiagnostic implements Diagnostic<JavaFileObject> {
+        private final Kind kind;
+        private final long position, start, end, line, column;
+        private final String message;
+
+        RemoteDiagnostic(Kind kind, long position, long start, long end, long line, long column, String message) {
+            this.kind = kind;
+            this.position = position;
+            this.start = start;
+            this.end = end;
+            this.line = line;
+            this.column = column;
+            this.message = message;
+        }
+
+        public Kind getKind() {return kind;}
+
+        public JavaFileObject getSource() {return null;}
+
+        public long getPosition() {return position;}
+
+        public long getStartPosition() {return start;}
+
+        public long getEndPosition() {return end;}
+
+        public long getLineNumber() {return line;}
+
+        public long getColumnNumber() {return column;}
+
+        public String getCode() {return null;}
+
+        public String getMessage(Locale locale) {return message;}
+    }
+
+    /**
+     * Keeps javac warm between runs. The compiler and its file manager are held onto, so the platform classes,
+     * the jars on the class path and javac's own (by now JIT-compiled) code are reused by every compile instead
+     * of being loaded from scratch each time. Call reset() whenever the compile options change.
+     */
+    private static class CompilerService {
+        private final JavaCompiler compiler;
+        private final ArrayList<String> options; //null means whatever the options window says
+        private StandardJavaFileManager manager;
+        private volatile boolean stale; //The manager is to be replaced before the next compile
+
+        CompilerService(JavaCompiler compiler, ArrayList<String> options) {
+            this.compiler = compiler;
+            this.options = options;
+        }
+
+        //Compiles the code in memory. Returns the class bytes by binary name, or null on failure.
+        synchronized Map<String, byte[]> compile(String name, String code, Writer writer) {
+            return compile(name, code, writer, null, null, null);
+        }
+
+        //Same as above, but hands diagnostics to the listener instead of the writer, gives up between compile
+        //phases once "cancelled" is set, and records phase timings. Any of those can be null.
+        synchronized Map<String, byte[]> compile(String name, String code, Writer writer, DiagnosticListener<JavaFileObject> listener,
+        AtomicBoolean cancelled, RunTimings timings) {
+            MemoryFileManager memory = new MemoryFileManager(getManager());
+            JavacTask task = (JavacTask)compiler.getTask(writer, memory, listener, getOptions(), null,
+                    Arrays.asList(new MemorySource(name, code)));
+            return call(task, cancelled, timings) ? memory.getClasses() : null;
+        }
+
+        //Compiles a source file on disk. The class files end up next to it, same as plain javac.
+        synchronized boolean compile(File source, Writer writer, DiagnosticListener<JavaFileObject> listener,
+        AtomicBoolean cancelled, RunTimings timings) {
+            StandardJavaFileManager manager = getManager();
+            JavacTask task = (JavacTask)compiler.getTask(writer, manager, listener, getOptions(), null,
+                manager.getJavaFileObjects(source));
+            return call(task, cancelled, timings);
+        }
+
+        //Runs the task, stopping it between phases if it gets cancelled. A cancelled compile counts as a failure.
+        private boolean call(JavacTask task, final AtomicBoolean cancelled, RunTimings timings) {
+            if (timings != null)
+                task.addTaskListener(timings);
+            if (cancelled != null) {
+                task.addTaskListener(new TaskListener() {
+                        public void started(TaskEvent e) {
+                            if (cancelled.get()) throw new CancellationException();
+                        }
+
+                        public void finished(TaskEvent e) {}
+                    });
+            }
+            try {
+                return task.call();
+            } catch (RuntimeException e) {
+                if (cancelled != null && cancelled.get()) return false; //javac wraps our CancellationException
+                throw e;
+            }
+        }
+
+        //Throws away the file manager and everything it has cached, so the next compile starts fresh. Only marks
+        //it, so it's quick even while a compile is running (typing in the options window calls it on every key).
+        void reset() {
+            stale = true;
+        }
+
+        //Closes the file manager and the jars it holds open, waiting for any compile to finish first.
+        synchronized void close() {
+            if (manager != null) {
+                try {manager.close();} catch (IOException i) {}
+                manager = null;
+            }
+        }
+
+        //Does a throwaway compile in the background, so even the first Cmd+R gets a warm compiler.
+        void warmUp() {
+            Thread t = new Thread() {
+                    public void run() {
+                        compile("Warmup", "import java.util.*;\nimport javax.swing.*;\nimport java.awt.*;\nimport java.io.*;\n" +
+                            "public class Warmup {public static void main(String[] args) {System.out.println(new ArrayList<String>());}}",
+                            new StringWriter());
+                    }
+                };
+            t.setDaemon(true);
+            t.start();
+        }
+
+        private ArrayList<String> getOptions() {
+            return options != null ? options : getCompileArguments();
+        }
+
+        private StandardJavaFileManager getManager() {
+            if (stale) {
+                stale = false;
+                close();
+            }
+            if (manager == null) {
+                manager = compiler.getStandardFileManager(null, null, null);
+                //The daemon's services get their class path in the options instead.
+                if (options == null && libraryManager != null) {
+                    try {
+                        manager.setLocation(StandardLocation.CLASS_PATH, libraryManager.getCompileClassPath());
+                    } catch (IOException i) {
+                        println("Couldn't open the libraries: " + i.getMessage(), warning);
+                    }
+                }
+            }
+            return manager;
+        }
+    }
+
+    /**
+     * Runs every program in a directory without the editor, for grading a pile of submissions at once:
+     * "java Playground -batch directory [-jobs N] [-timeout seconds] [-output bytes] [-out results.jsonl]".
+     * Files ending in .java or .txt go through the same transform as Cmd+R, are compiled in memory by a warm
+     * compiler kept per worker thread, and run in their own JVM through the Launcher. Each file's result is written
+     * as a line of JSON as soon as it's done, so the lines are in the order files finish, not the order they're
+     * listed. Output past the limit is dropped, and the result says it was truncated.
+     */
+    private static class BatchRunner {
+        static final int TIMEOUT = 10; //Seconds each program gets, unless told otherwise
+        static final int TIMED_OUT = -1; //In place of an exit status
+        static final int OUTPUT_LIMIT = 1 << 16; //Bytes of stdout, and of stderr, kept per file, unless told otherwise
+        static final String USAGE = "Usage: java Playground -batch directory [-jobs N] [-timeout seconds] [-output bytes] [-out results.jsonl]";
+
+        private final int timeout;
+        private final int outputLimit; //Bytes of stdout, and of stderr, kept per run; 0 for all of it
+        private final PrintWriter results; //null when the results go elsewhere; see ExecutionServer
+        private final Map<String, Integer> counts = new TreeMap<String, Integer>(); //Runs by status
+        private final ThreadLocal<CompilerService> services;
+
+        BatchRunner(final JavaCompiler compiler, int timeout, int outputLimit, PrintWriter results) {
+            this.timeout = timeout;
+            this.outputLimit = outputLimit;
+            this.results = results;
+            final ArrayList<String> options = getCompileArguments();
+            options.add("-classpath");
+            options.add(libraryManager.getClassPath());
+            //A CompilerService compiles one program at a time, so each worker gets its own.
+            services = new ThreadLocal<CompilerService>() {
+                    protected CompilerService initialValue() {
+                        return new CompilerService(compiler, options);
+                    }
+                };
+        }
+
+        static void run(String[] args) throws IOException {
+            File directory = null, output = null;
+            int jobs = Runtime.getRuntime().availableProcessors(), timeout = TIMEOUT, limit = OUTPUT_LIMIT;
+            try {
+                for (int i = 1; i < args.length; i++) {
+                    if (args[i].equals("-jobs") && i + 1 < args.length) jobs = Integer.parseInt(args[++i]);
+                    else if (args[i].equals("-timeout") && i + 1 < args.length) timeout = Integer.parseInt(args[++i]);
+                    else if (args[i].equals("-output") && i + 1 < args.length) limit = Integer.parseInt(args[++i]);
+                    else if (args[i].equals("-out") && i + 1 < args.length) output = new File(args[++i]);
+                    else directory = new File(args[i]);
+                }
+            } catch (NumberFormatException n) {
+                directory = null;
+            }
+            if (directory == null || !directory.isDirectory() || jobs < 1 || timeout < 1 || limit < 1) {
+                System.out.println(USAGE);
+                return;
+            }
+            JavaCompiler compiler = getCompiler();
+            if (compiler == null) return;
+            if (output == null) output = new File(directory, "results.jsonl");
+
+            File[] files = directory.listFiles(new FileFilter() {
+                    public boolean accept(File f) {
+                        return f.isFile() && (f.getName().endsWith(".java") || f.getName().endsWith(".txt"));
+                    }
+                });
+            Arrays.sort(files);
+            PrintWriter results = new PrintWriter(new OutputStreamWriter(new FileOutputStream(output), "UTF-8"));
+            final BatchRunner runner = new BatchRunner(compiler, timeout, limit, results);
+
+            long start = System.nanoTime();
+            ExecutorService workers = Executors.newFixedThreadPool(jobs, daemonThreads("Batch worker"));
+            ArrayList<Future<?>> pending = new ArrayList<Future<?>>();
+            for (final File f : files) {
+                pending.add(workers.submit(new Runnable() {
+                            public void run() {
+                                runner.run(f);
+                            }
+                        }));
+            }
+            for (Future<?> f : pending) {
+                try {
+                    f.get();
+                } catch (Exception e) {
+                    System.out.println("A worker failed: " + e);
+                }
+            }
+            workers.shutdown();
+            results.close();
+            System.out.println(String.format(Locale.ROOT, "Ran %d files with %d workers in %.1fs %s; results are in %s.", files.length,
+                    jobs, (System.nanoTime() - start) / 1e9, runner.getCountsJson(), output.getPath()));
+        }
+
+        //Gets things set up to run without the editor. Returns the compiler, or null if there isn't one.
+        static JavaCompiler getCompiler() {
+            JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+            if (compiler == null)
+                System.out.println("Fatal Error: JDK not installed. Go to java.sun.com and install.");
+
+            //The editor's defaults, since there's no settings file to read them from.
+            compileOptions = "";
+            runOptions = "";
+            inMemoryCompiling = true;
+            bufferOutput = true;
+            return compiler;
+        }
+
+        //Compiles and runs one file, and writes its line of results.
+        private void run(File file) {
+            String result;
+            try {
+                result = run(new String(java.nio.file.Files.readAllBytes(file.toPath()), "UTF-8"));
+            } catch (IOException i) {
+                result = "{\"status\":\"failed\",\"exit\":-1,\"stdout\":\"\",\"stderr\":" + quote(i.toString()) + "}";
+            }
+            synchronized (this) {
+                results.println("{\"file\":" + quote(file.getName()) + "," + result.substring(1));
+                results.flush();
+            }
+        }
+
+        //Transforms, compiles and runs some code, the way Cmd+R does. Returns the results as a JSON object.
+        String run(String code) {
+            String status, stdout = "", stderr = "";
+            boolean truncated = false;
+            int exit = -1;
+            Program program = null;
+            RunTimings timings = null;
+            try {
+                program = transform(code);
+                timings = new RunTimings(program.name);
+                DiagnosticCollector<JavaFileObject> diagnostics = new DiagnosticCollector<JavaFileObject>();
+                StringWriter compilerOutput = new StringWriter();
+                Map<String, byte[]> classes = services.get().compile(program.name, program.code, compilerOutput, diagnostics, null, timings);
+                if (classes == null) {
+                    status = "compile-error";
+                    stderr = compilerOutput.toString() + getErrors(program, diagnostics);
+                } else {
+                    CappedOutput programOut = new CappedOutput(outputLimit), programErr = new CappedOutput(outputLimit);
+                    exit = execute(program, classes, timings, programOut, programErr);
+                    status = exit == TIMED_OUT ? "timeout" : exit == 0 ? "ok" : "error";
+                    stdout = programOut.toString("UTF-8");
+                    stderr = programErr.toString("UTF-8");
+                    truncated = programOut.truncated || programErr.truncated;
+                }
+            } catch (Exception e) {
+                status = "failed";
+                stderr = e.toString();
+            }
+
+            StringBuilder result = new StringBuilder("{\"status\":" + quote(status) + ",\"exit\":" + exit);
+            if (program != null) result.append(",\"class\":" + quote(program.name));
+            result.append(",\"stdout\":" + quote(stdout) + ",\"stderr\":" + quote(stderr));
+            if (truncated) result.append(",\"truncated\":true");
+            if (timings != null) result.append(",\"timings\":" + timings.toJson(exit));
+            synchronized (this) {
+                Integer count = counts.get(status);
+                counts.put(status, count == null ? 1 : count + 1);
+            }
+            return result.append("}").toString();
+        }
+
+        synchronized String getCountsJson() {
+            StringBuilder json = new StringBuilder("{");
+            for (Map.Entry<String, Integer> e : counts.entrySet())
+                json.append(json.length() > 1 ? "," : "").append(quote(e.getKey()) + ":" + e.getValue());
+            return json.append("}").toString();
+        }
+
+        //Runs the classes in a new JVM. Returns its exit status, or TIMED_OUT if it had to be stopped.
+        private int execute(Program program, Map<String, byte[]> classes, RunTimings timings, OutputStream programOut,
+        OutputStream programErr) throws IOException, InterruptedException {
+            ArrayList<String> command = getRunCommand(System.getProperty("java.home"), true);
+            command.add(program.name);
+            timings.start(RunTimings.SPAWN);
+            Process process = new ProcessBuilder(command).start();
+            timings.launched();
+            ChannelReader reader = new ChannelReader(process, program, classes.keySet(), timings, programOut, programErr);
+            reader.start();
+            OutputStream stdin = process.getOutputStream();
+            try {
+                Launcher.writeClasses(stdin, classes);
+                stdin.close(); //Nobody's there to type, so reading System.in gets the end of it.
+            } catch (IOException i) {
+                //It exited before reading them; its output will say why.
+            }
+            timings.stop(RunTimings.SPAWN);
+
+            boolean finished = process.waitFor(timeout, TimeUnit.SECONDS);
+            if (!finished) {
+                destroyTree(process);
+                if (!process.waitFor(1, TimeUnit.SECONDS))
+                    process.destroyForcibly().waitFor();
+            }
+            reader.join();
+            return finished ? process.exitValue() : TIMED_OUT;
+        }
+
+        //The compile errors, with line numbers from the file rather than the generated class.
+        private static String getErrors(Program program, DiagnosticCollector<JavaFileObject> diagnostics) {
+            StringBuilder errors = new StringBuilder();
+            for (Diagnostic<? extends JavaFileObject> d : diagnostics.getDiagnostics()) {
+                if (d.getKind() != Diagnostic.Kind.ERROR) continue;
+                int line = toEditorLine(program, (int)d.getLineNumber());
+                errors.append(line > 0 ? "Line " + line : "Generated code, line " + d.getLineNumber());
+                errors.append(": error: " + d.getMessage(Locale.ROOT) + "\n");
+            }
+            return errors.toString();
+        }
+
+        /**
+         * Keeps the first so many bytes written to it, and drops the rest.
+         */
+        static class CappedOutput extends ByteArrayOutputStream {
+            private final int limit; //0 for no limit
+            boolean truncated;
+
+            CappedOutput(int limit) {
+                this.limit = limit;
+            }
+
+            public synchronized void write(byte[] bytes, int offset, int length) {
+                if (limit > 0 && count + length > limit) {
+                    truncated = true;
+                    length = Math.max(0, limit - count);
+                }
+                super.write(bytes, offset, length);
+            }
+
+            public synchronized void write(int b) {
+                write(new byte[]{(byte)b}, 0, 1);
+            }
+        }
+    }
+
+    /**
+     * Serves programs over HTTP on localhost, for a web front end: "java Playground -serve [-port N] [-jobs N]
+     * [-queue N] [-timeout seconds] [-output bytes]". POST the code to /run and get back the same JSON as a line of
+     * -batch results. Runs go through a BatchRunner on a fixed pool of workers; once the queue in front of them is
+     * full, new runs get a 429 straight away rather than waiting. GET /metrics reports the queue and latencies.
+     * Running code is as good as a shell, so any web page in a browser on the same machine mustn't be able to
+     * ask: every request needs the token printed at startup in the TOKEN header, a Host of localhost or
+     * 127.0.0.1, and no Origin. Code has to be sent as CODE_TYPE, which a page can't send without a preflight.
+     */
+    private static class ExecutionServer {
+        static final int PORT = 8123;
+        static final String TOKEN = "X-Playground-Token";
+        static final String CODE_TYPE = "text/x-java-source";
+        static final int QUEUE = 32; //Runs waiting for a worker
+        static final int OUTPUT_LIMIT = 1 << 16; //Bytes of stdout, and of stderr, kept per run
+        static final int CODE_LIMIT = 1 << 20; //Bytes
+        static final int LATENCIES = 1000; //Recent runs kept for the percentiles
+        static final String USAGE = "Usage: java Playground -serve [-port N] [-jobs N] [-queue N] [-timeout seconds] [-output bytes]";
+
+        private final BatchRunner runner;
+        private final ThreadPoolExecutor workers;
+        private final String token;
+        private int port;
+        private final long[] latencies = new long[LATENCIES]; //Nanoseconds from arriving to answering, a ring
+        private long completed, rejected;
+
+        ExecutionServer(BatchRunner runner, int jobs, int queue) {
+            this.runner = runner;
+            workers = new ThreadPoolExecutor(jobs, jobs, 0, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<Runnable>(queue),
+                daemonThreads("Execution worker"));
+            byte[] random = new byte[32];
+            new SecureRandom().nextBytes(random);
+            StringBuilder hex = new StringBuilder();
+            for (byte b : random)
+                hex.append(String.format("%02x", b));
+            token = hex.toString();
+        }
+
+        static void serve(String[] args) throws IOException {
+            int port = PORT, jobs = Runtime.getRuntime().availableProcessors(), queue = QUEUE;
+            int timeout = BatchRunner.TIMEOUT, output = OUTPUT_LIMIT;
+            try {
+                for (int i = 1; i + 1 < args.length; i += 2) {
+                    int value = Integer.parseInt(args[i + 1]);
+                    if (args[i].equals("-port")) port = value;
+                    else if (args[i].equals("-jobs")) jobs = value;
+                    else if (args[i].equals("-queue")) queue = value;
+                    else if (args[i].equals("-timeout")) timeout = value;
+                    else if (args[i].equals("-output")) output = value;
+                    else jobs = 0;
+                }
+            } catch (NumberFormatException n) {
+                jobs = 0;
+            }
+            if (args.length % 2 == 0 || jobs < 1 || queue < 1 || timeout < 1 || output < 1) {
+                System.out.println(USAGE);
+                return;
+            }
+            JavaCompiler compiler = BatchRunner.getCompiler();
+            if (compiler == null) return;
+
+            final ExecutionServer server = new ExecutionServer(new BatchRunner(compiler, timeout, output, null), jobs, queue);
+            com.sun.net.httpserver.HttpServer http = com.sun.net.httpserver.HttpServer.create(
+                new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+            http.createContext("/run", new com.sun.net.httpserver.HttpHandler() {
+                    public void handle(com.sun.net.httpserver.HttpExchange exchange) throws IOException {
+                        server.run(exchange);
+                    }
+                });
+            http.createContext("/metrics", new com.sun.net.httpserver.HttpHandler() {
+                    public void handle(com.sun.net.httpserver.HttpExchange exchange) throws IOException {
+                        if (server.isAllowed(exchange)) respond(exchange, 200, server.getMetrics());
+                    }
+                });
+            //Requests are only read and queued here; the workers do the rest.
+            http.setExecutor(Executors.newSingleThreadExecutor());
+            http.start();
+            server.port = http.getAddress().getPort();
+            System.out.println("Serving on http://localhost:" + server.port + "/run with " + jobs + " workers.");
+            System.out.println("Send the code as " + CODE_TYPE + ", with the header " + TOKEN + ": " + server.token);
+        }
+
+        //Answers the request with an error and returns false unless it's from a local client that knows the token.
+        private boolean isAllowed(com.sun.net.httpserver.HttpExchange exchange) throws IOException {
+            com.sun.net.httpserver.Headers headers = exchange.getRequestHeaders();
+            String host = headers.getFirst("Host");
+            //A page that rebinds its own host name to 127.0.0.1 still sends that name.
+            if (host == null || !host.equals("localhost:" + port) && !host.equals("127.0.0.1:" + port)) {
+                respond(exchange, 403, "{\"error\":\"only for localhost\"}");
+                return false;
+            }
+            //Browsers send one with anything a page asks for; command-line clients don't.
+            if (headers.containsKey("Origin")) {
+                respond(exchange, 403, "{\"error\":\"not for web pages\"}");
+                return false;
+            }
+            String given = headers.getFirst(TOKEN);
+            if (given == null || !MessageDigest.isEqual(given.getBytes("UTF-8"), token.getBytes("UTF-8"))) {
+                respond(exchange, 401, "{\"error\":\"missing or wrong " + TOKEN + " header\"}");
+                return false;
+            }
+            return true;
+        }
+
+        private void run(final com.sun.net.httpserver.HttpExchange exchange) throws IOException {
+            if (!isAllowed(exchange)) return;
+            if (!exchange.getRequestMethod().equals("POST")) {
+                respond(exchange, 405, "{\"error\":\"POST the code to run\"}");
+                return;
+            }
+            String type = exchange.getRequestHeaders().getFirst("Content-Type");
+            if (type == null || !type.split(";")[0].trim().equalsIgnoreCase(CODE_TYPE)) {
+                respond(exchange, 415, "{\"error\":\"send the code as " + CODE_TYPE + "\"}");
+                return;
+            }
+            ByteArrayOutputStream body = new ByteArrayOutputStream();
+            InputStream in = exchange.getRequestBody();
+            byte[] buffer = new byte[8192];
+            for (int n; (n = in.read(buffer)) > 0; ) {
+                body.write(buffer, 0, n);
+                if (body.size() > CODE_LIMIT) {
+                    respond(exchange, 413, "{\"error\":\"the code is over " + CODE_LIMIT + " bytes\"}");
+                    return;
+                }
+            }
+            final String code = body.toString("UTF-8");
+            final long arrived = System.nanoTime();
+            try {
+                workers.execute(new Runnable() {
+                        public void run() {
+                            int status = 500;
+                            String result = "{\"error\":\"the run failed\"}";
+                            try {
+                                result = runner.run(code);
+                                status = 200;
+                            } catch (Throwable t) {
+                                //Like an OutOfMemoryError; the client still gets an answer.
+                                result = "{\"error\":" + quote("the run failed: " + t) + "}";
+                            } finally {
+                                try {
+                                    respond(exchange, status, result);
+                                } catch (IOException i) {
+                                    //The client gave up waiting.
+                                } finally {
+                                    finished(System.nanoTime() - arrived);
+                                }
+                            }
+                        }
+                    });
+            } catch (RejectedExecutionException r) {
+                synchronized (this) {
+                    rejected++;
+                }
+                exchange.getResponseHeaders().set("Retry-After", "1");
+                respond(exchange, 429, "{\"error\":\"too many runs waiting\"}");
+            }
+        }
+
+        private synchronized void finished(long latency) {
+            latencies[(int)(completed % LATENCIES)] = latency;
+            completed++;
+        }
+
+        private synchronized String getMetrics() {
+            long[] recent = Arrays.copyOf(latencies, (int)Math.min(completed, LATENCIES));
+            Arrays.sort(recent);
+            return String.format(Locale.ROOT, "{\"queued\":%d,\"running\":%d,\"completed\":%d,\"rejected\":%d,\"p50\":%.1f,\"p99\":%.1f,\"statuses\":%s}",
+                workers.getQueue().size(), workers.getActiveCount(), completed, rejected, getPercentile(recent, 50) / 1e6,
+                getPercentile(recent, 99) / 1e6, runner.getCountsJson());
+        }
+
+        //Nearest-rank percentile of sorted values, or 0 if there aren't any.
+        private static long getPercentile(long[] sorted, int percentile) {
+            if (sorted.length == 0) return 0;
+            int rank = (int)Math.ceil(percentile / 100.0 * sorted.length);
+            return sorted[Math.max(0, rank - 1)];
+        }
+
+        private static void respond(com.sun.net.httpserver.HttpExchange exchange, int status, String json) throws IOException {
+            byte[] bytes = json.getBytes("UTF-8");
+            exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+            exchange.sendResponseHeaders(status, bytes.length);
+            OutputStream body = exchange.getResponseBody();
+            body.write(bytes);
+            body.close();
+        }
+    }
+
+    /**
+     * Remembers the classes from earlier compiles, so running the same program again skips javac entirely.
+     * Programs are keyed on a hash of their tokens and line breaks, so whitespace and comment changes within a
+     * line still hit the cache, but anything that moves code to another line doesn't, since the classes' line
+     * numbers would be wrong for stack traces and profiles. Entries are kept in a
+     * small in-memory LRU, backed by a bounded LRU of files in the temp directory that survives restarts.
+     */
+    private static class CompileCache {
+        static final int MEMORY_ENTRIES = 32;
+        static final int DISK_ENTRIES = 256;
+
+        private final File directory;
+        private final Map<String, Map<String, byte[]>> memory = new LinkedHashMap<String, Map<String, byte[]>>(16, .75f, true) {
+                protected boolean removeEldestEntry(Map.Entry<String, Map<String, byte[]>> eldest) {
+                    return size() > MEMORY_ENTRIES;
+                }
+            };
+        private int hits, misses;
+
+        CompileCache(File directory) {
+            this.directory = directory;
+            directory.mkdirs();
+        }
+
+        //The cache key for a program: its tokens, plus everything else that changes what javac produces.
+        static String key(String name, String code) {
+            try {
+                MessageDigest digest = MessageDigest.getInstance("SHA-256");
+                String salt = name + "\n" + compileOptions + "\n" + System.getProperty("java.version") + "\n"
+                    + libraryManager.getSignature() + "\n";
+                digest.update(salt.getBytes("UTF-8"));
+                digest.update(normalize(code).getBytes("UTF-8"));
+                StringBuilder hex = new StringBuilder();
+                for (byte b : digest.digest())
+                    hex.append(String.format("%02x", b));
+                return hex.toString();
+            } catch (Exception e) {
+                throw new IllegalStateException(e); //SHA-256 and UTF-8 always exist.
+            }
+        }
+
+        //Returns the cached classes for a key, or null. Counts as a hit or a miss.
+        synchronized Map<String, byte[]> get(String key) {
+            Map<String, byte[]> classes = memory.get(key);
+            if (classes == null) {
+                File f = new File(directory, key);
+                if (f.exists()) {
+                    try {
+                        InputStream in = new BufferedInputStream(new FileInputStream(f));
+                        try {classes = Launcher.readClasses(in);} finally {in.close();}
+                        f.setLastModified(System.currentTimeMillis()); //Keeps it from being evicted.
+                        memory.put(key, classes);
+                    } catch (IOException i) {
+                        f.delete(); //Half-written or corrupt. It'll be rewritten on the next compile.
+                    }
+                }
+            }
+            if (classes == null) misses++; else hits++;
+            return classes;
+        }
+
+        //Checks for a key without counting it as a hit or a miss.
+        synchronized boolean contains(String key) {
+            return memory.containsKey(key) || new File(directory, key).exists();
+        }
+
+        synchronized void put(String key, Map<String, byte[]> classes) {
+            memory.put(key, classes);
+            try {
+                File temp = new File(directory, key + ".tmp");
+                OutputStream stream = new FileOutputStream(temp);
+                try {Launcher.writeClasses(stream, classes);} finally {stream.close();}
+                temp.renameTo(new File(directory, key));
+            } catch (IOException i) {
+                return; //The disk cache is only an optimization.
+            }
+
+            //Evicts the least recently used files once there are too many.
+            File[] files = directory.listFiles();
+            if (files != null && files.length > DISK_ENTRIES) {
+                Arrays.sort(files, new Comparator<File>() {
+                        public int compare(File a, File b) {return Long.compare(a.lastModified(), b.lastModified());}
+                    });
+                for (int i = 0; i < files.length - DISK_ENTRIES; i++)
+                    files[i].delete();
+            }
+        }
+
+        synchronized String getStatistics() {
+            return hits + " hit" + (hits == 1 ? "" : "s") + ", " + misses + " miss" + (misses == 1 ? "" : "es");
+        }
+
+        //Strips comments and whitespace out of the code, keeping a single space only where two tokens would
+        //otherwise run together. Line breaks stay, even those inside comments, since the class files record
+        //which line each statement is on. String and character literals are left exactly as they are.
+        static String normalize(String code) {
+            StringBuilder tokens = new StringBuilder(code.length());
+            boolean gap = false; //Whitespace or a comment since the last token
+            int i = 0, n = code.length();
+            while (i < n) {
+                char c = code.charAt(i);
+                if (c == '\n') {
+                    tokens.append(c);
+                    gap = false; i++;
+                    continue;
+                }
+                if (Character.isWhitespace(c)) {
+                    gap = true; i++;
+                    continue;
+                }
+                if (code.startsWith("//", i)) {
+                    int end = code.indexOf("\n", i);
+                    gap = true; i = end < 0 ? n : end;
+                    continue;
+                }
+                if (code.startsWith("/*", i)) {
+                    int end = code.indexOf("*/", i + 2);
+                    end = end < 0 ? n : end + 2;
+                    for (int j = i; j < end; j++)
+                        if (code.charAt(j) == '\n') tokens.append('\n');
+                    gap = true; i = end;
+                    continue;
+                }
+
+                //"a + b" and "a+b" are the same, but "- -b" and "--b" aren't.
+                if (gap && tokens.length() > 0 && isWordChar(tokens.charAt(tokens.length() - 1)) == isWordChar(c))
+                    tokens.append(' ');
+                gap = false;
+
+                if (c == '"' || c == '\'') {
+                    int end = skipLiteral(code, i);
+                    tokens.append(code, i, end);
+                    i = end;
+                } else {
+                    tokens.append(c);
+                    i++;
+                }
+            }
+            return tokens.toString();
+        }
+
+        private static boolean isWordChar(char c) {
+            return Character.isJavaIdentifierPart(c) || c == '.';
+        }
+
+        //Returns the position just past the string, character or text block literal starting at i.
+        private static int skipLiteral(String code, int i) {
+            char quote = code.charAt(i);
+            boolean block = code.startsWith("\"\"\"", i);
+            int j = block ? i + 3 : i + 1;
+            while (j < code.length()) {
+                char c = code.charAt(j);
+                if (c == '\\') j += 2;
+                else if (block && code.startsWith("\"\"\"", j)) return j + 3;
+                else if (!block && c == quote) return j + 1;
+                else if (!block && c == '\n') return j; //Unterminated; javac will complain about it.
+                else j++;
+            }
+            return code.length();
+        }
+    }
+
+    /**
+     * Remembers what programs printed, so running one again with nothing changed can replay its output instead of
+     * starting a JVM. Only programs that can't print anything different the second time are cached: a scan of
+     * their class files turns away anything using the clock, randomness, threads, files, the network, the GUI,
+     * System.in or a library. Objects of the program's own classes have to bring their own hashCode and toString,
+     * since the identity hash codes change from run to run, and with them the order of a HashSet and what the
+     * default toString prints. A scan can't see everything (arrays, enums and plain Objects have identity hash
+     * codes too), which is why this is off by default. Results are keyed on the class bytes plus the settings that change how they run,
+     * and kept in a bounded LRU of files, like CompileCache.
+     */
+    private static class ResultCache {
+        static final int DISK_ENTRIES = 256;
+        static final int OUTPUT_LIMIT = 1 << 20; //Bytes; anything chattier isn't worth keeping
+        //Packages (ending in "/"), classes, and single members whose results can change from run to run.
+        static final String[] NONDETERMINISTIC = {"java/lang/System.currentTimeMillis", "java/lang/System.nanoTime",
+            "java/lang/System.in", "java/lang/System.getenv", "java/lang/System.identityHashCode", "java/lang/Object.hashCode",
+            "java/lang/Math.random", "java/lang/StrictMath.random", "java/lang/Runtime", "java/lang/Thread", "java/lang/ThreadGroup",
+            "java/lang/ProcessBuilder", "java/lang/ProcessHandle", "java/util/Random", "java/util/SplittableRandom", "java/util/UUID",
+            "java/util/Date", "java/util/Calendar", "java/util/GregorianCalendar", "java/util/TimeZone", "java/util/Timer",
+            "java/util/Collection.parallelStream", "java/util/stream/BaseStream.parallel", "java/security/SecureRandom",
+            "java/io/File", "java/io/FileInputStream", "java/io/FileOutputStream", "java/io/FileReader", "java/io/FileWriter",
+            "java/io/RandomAccessFile", "java/io/Console", "java/util/concurrent/", "java/util/random/", "java/time/", "java/nio/file/",
+            "java/nio/channels/", "java/net/", "java/awt/", "javax/swing/", "java/lang/management/", "java/lang/ref/", "java/sql/"};
+
+        private final File directory;
+
+        ResultCache(File directory) {
+            this.directory = directory;
+            directory.mkdirs();
+        }
+
+        //Says why a program's output might change between runs, or returns null if it can't.
+        static String getReasonNotToCache(Map<String, byte[]> classes) {
+            Set<String> all = new HashSet<String>();
+            for (byte[] bytes : classes.values()) {
+                Set<String> references;
+                try {
+                    references = ClassScanner.getReferences(bytes);
+                } catch (IOException i) {
+                    return "its class files couldn't be read";
+                }
+                for (String r : references) {
+                    if (r.startsWith("[")) continue; //Array types; the element type is listed too.
+                    int dot = r.indexOf('.');
+                    String owner = dot < 0 ? r : r.substring(0, dot);
+                    for (String n : NONDETERMINISTIC) {
+                        if (n.endsWith("/") ? owner.startsWith(n) : n.indexOf('.') < 0 ? owner.equals(n) : r.equals(n))
+                            return "it uses " + r.replace('/', '.');
+                    }
+                    if (!owner.startsWith("java/") && !owner.startsWith("javax/") && !classes.containsKey(owner.replace('/', '.')))
+                        return "it uses " + owner.replace('/', '.') + ", from a library";
+                }
+                all.addAll(references);
+            }
+            return getIdentityHashed(classes, all);
+        }
+
+        //Says which class that the program makes objects of goes by identity hash codes, or returns null if none
+        //does. The classes are loaded (not initialized) in a loader of their own, to see what they inherit.
+        private static String getIdentityHashed(Map<String, byte[]> classes, Set<String> references) {
+            ClassLoader loader = new ByteClassLoader(classes, ClassLoader.getPlatformClassLoader());
+            for (String name : classes.keySet()) {
+                if (!references.contains(name.replace('.', '/') + ".<init>")) continue; //Never constructed.
+                try {
+                    Class<?> c = Class.forName(name, false, loader);
+                    if (c.isEnum()) continue; //Their toString is their name. Their hashCode isn't; see above.
+                    if (c.getMethod("hashCode").getDeclaringClass() == Object.class)
+                        return name + " has no hashCode of its own";
+                    if (c.getMethod("toString").getDeclaringClass() == Object.class)
+                        return name + " has no toString of its own";
+                } catch (Exception e) {
+                    return name + " couldn't be checked";
+                } catch (LinkageError l) {
+                    return name + " couldn't be checked";
+                }
+            }
+            return null;
+        }
+
+        //The cache key for a run: the classes, plus everything else that changes what they do.
+        static String key(Map<String, byte[]> classes) {
+            try {
+                MessageDigest digest = MessageDigest.getInstance("SHA-256");
+                String salt = runOptions + "\n" + heapLimit + "\n" + System.getProperty("java.version") + "\n"
+                    + libraryManager.getSignature() + "\n";
+                digest.update(salt.getBytes("UTF-8"));
+                for (String name : new TreeSet<String>(classes.keySet())) {
+                    digest.update(name.getBytes("UTF-8"));
+                    digest.update(classes.get(name));
+                }
+                StringBuilder hex = new StringBuilder();
+                for (byte b : digest.digest())
+                    hex.append(String.format("%02x", b));
+                return hex.toString();
+            } catch (Exception e) {
+                throw new IllegalStateException(e); //SHA-256 and UTF-8 always exist.
+            }
+        }
+
+        //Plays back a cached run into the log. Returns false if there isn't one.
+        synchronized boolean replay(String name, String key) {
+            File f = new File(directory, key);
+            if (!f.exists()) return false;
+            try {
+                DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(f)));
+                try {
+                    int exit = in.readInt();
+                    Date recorded = new Date(in.readLong());
+                    byte[] output = new byte[in.readInt()];
+                    in.readFully(output);
+                    println("Replaying the output of an identical run from " + recorded + " (result cache).", progErr);
+                    DataInputStream frames = new DataInputStream(new ByteArrayInputStream(output));
+                    while (frames.available() > 0) {
+                        int type = frames.readUnsignedByte();
+                        byte[] payload = new byte[frames.readInt()];
+                        frames.readFully(payload);
+                        (type == Launcher.OUT ? out : err).write(payload, 0, payload.length);
+                    }
+                    println(name + " exited with status " + exit + " (replayed).", progErr);
+                } finally {
+                    in.close();
+                }
+                f.setLastModified(System.currentTimeMillis()); //Keeps it from being evicted.
+                return true;
+            } catch (IOException i) {
+                f.delete(); //Half-written or corrupt. It'll be rewritten on the next run.
+                return false;
+            }
+        }
+
+        //Keeps a run's output; see ChannelReader.record().
+        synchronized void put(String key, byte[] output, int exit) {
+            try {
+                File temp = new File(directory, key + ".tmp");
+                DataOutputStream stream = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp)));
+                try {
+                    stream.writeInt(exit);
+                    stream.writeLong(System.currentTimeMillis());
+                    stream.writeInt(output.length);
+                    stream.write(output);
+                } finally {
+                    stream.close();
+                }
+                temp.renameTo(new File(directory, key));
+            } catch (IOException i) {
+                return; //Just an optimization, like the compile cache.
+            }
+
+            //Evicts the least recently used files once there are too many.
+            File[] files = directory.listFiles();
+            if (files != null && files.length > DISK_ENTRIES) {
+                Arrays.sort(files, new Comparator<File>() {
+                        public int compare(File a, File b) {return Long.compare(a.lastModified(), b.lastModified());}
+                    });
+                for (int i = 0; i < files.length - DISK_ENTRIES; i++)
+                    files[i].delete();
+            }
+        }
+    }
+
+    /**
+     * A source file that only exists in memory. Lets javac read the code straight out of the editor.
+     */
+    private static class MemorySource extends SimpleJavaFileObject {
+        private final String code;
+
+        MemorySource(String name, String code) {
+            super(URI.create("string:///" + name.replace('.', '/') + Kind.SOURCE.extension), Kind.SOURCE);
+            this.code = code;
+        }
+
+        public CharSequence getCharContent(boolean ignoreEncodingErrors) {return code;}
+    }
+
+    /**
+     * A class file that only exists in memory. javac writes the bytecode into it instead of onto the disk.
+     */
+    private static class MemoryClass extends SimpleJavaFileObject {
+        private final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+
+        MemoryClass(String name) {
+            super(URI.create("bytes:///" + name.replace('.', '/') + Kind.CLASS.extension), Kind.CLASS);
+        }
+
+        public OutputStream openOutputStream() {return bytes;}
+
+        byte[] getBytes() {return bytes.toByteArray();}
+    }
+
+    /**
+     * Forwards everything to the normal file manager, except for class output, which is kept in memory.
+     * After a compile, getClasses() has the bytecode of every class (inner ones too) by binary name.
+     */
+    private static class MemoryFileManager extends ForwardingJavaFileManager<StandardJavaFileManager> {
+        private final Map<String, MemoryClass> output = new LinkedHashMap<String, MemoryClass>();
+
+        MemoryFileManager(StandardJavaFileManager manager) {
+            super(manager);
+        }
+
+        public JavaFileObject getJavaFileForOutput(Location location, String className, JavaFileObject.Kind kind, FileObject sibling) 
+        throws IOException {
+            if (kind != JavaFileObject.Kind.CLASS)
+                return super.getJavaFileForOutput(location, className, kind, sibling);
+            MemoryClass c = new MemoryClass(className);
+            output.put(className, c);
+            return c;
+        }
+
+        //Only meaningful once the compile task has finished writing.
+        Map<String, byte[]> getClasses() {
+            Map<String, byte[]> classes = new LinkedHashMap<String, byte[]>();
+            for (Map.Entry<String, MemoryClass> e : output.entrySet())
+                classes.put(e.getKey(), e.getValue().getBytes());
+            return classes;
+        }
+    }
+
+    /**
+     * Runs in the child JVM instead of the user's class when compiling in memory. It reads the class bytes that
+     * Playground writes to its stdin, defines them, and calls main on the class named by the first argument.
+     * Whatever follows the classes on stdin is left for the program itself. Started without arguments, it's a
+     * pooled worker (see WorkerPool), and the name of the class arrives on stdin ahead of the classes.
+     * The program's System.out and System.err both go down stdout as frames (see Channel), so Playground
+     * gets them in the order they were written; stderr is left for the JVM's own messages.
+     */
+    static class Launcher {
+        static final String BUFFER_PROPERTY = "playground.bufferOutput";
+        static final String TELEMETRY_PROPERTY = "playground.telemetry";
+        static final String PROFILE_PROPERTY = "playground.profile"; //Sampling interval in milliseconds
+        static final String BENCHMARK_PROPERTY = "playground.benchmark"; //See Benchmark
+        static final int BUFFER_SIZE = 1 << 16;
+        static final int FLUSH_INTERVAL = 20; //Milliseconds
+        static final int MAGIC = 0; //Starts every frame. Never starts text, so frames can be told apart from stray output.
+        static final int OUT = 1, ERR = 2, CONTROL = 3, METRIC = 4, TELEMETRY = 5, PROFILE = 6, BENCHMARK = 7; //Frame types
+        static final int TYPES = 8; //One more than the last frame type
+        static final int HEADER = 10; //Bytes in front of every payload
+        static final int FRAME_LIMIT = 1 << 24; //Bytes of payload; longer writes are split
+        static final int TELEMETRY_INTERVAL = 250; //Milliseconds
+
+        //Sends the classes down the pipe in the format main() expects.
+        static void writeClasses(OutputStream stream, Map<String, byte[]> classes) throws IOException {
+            DataOutputStream data = new DataOutputStream(new BufferedOutputStream(stream));
+            data.writeInt(classes.size());
+            for (Map.Entry<String, byte[]> e : classes.entrySet()) {
+                data.writeUTF(e.getKey());
+                data.writeInt(e.getValue().length);
+                data.write(e.getValue());
+            }
+            data.flush();
+        }
+
+        //Reads classes written by writeClasses(). Doesn't buffer past them, so System.in stays usable.
+        static Map<String, byte[]> readClasses(InputStream stream) throws IOException {
+            DataInputStream data = new DataInputStream(stream);
+            Map<String, byte[]> classes = new HashMap<String, byte[]>();
+            for (int count = data.readInt(); count > 0; count--) {
+                String name = data.readUTF();
+                byte[] bytes = new byte[data.readInt()];
+                data.readFully(bytes);
+                classes.put(name, bytes);
+            }
+            return classes;
+        }
+
+        public static void main(String[] args) throws Throwable {
+            //A worker sits here until it is handed something to run.
+            if (args.length == 0)
+                args = new String[]{new DataInputStream(System.in).readUTF()};
+            Channel channel = openChannel(Boolean.getBoolean(BUFFER_PROPERTY));
+            if (Boolean.getBoolean(TELEMETRY_PROPERTY))
+                new Telemetry(channel).start();
+            if (Integer.getInteger(PROFILE_PROPERTY, 0) > 0)
+                new Profiler(channel, Integer.getInteger(PROFILE_PROPERTY)).start();
+            ClassLoader loader = new ByteClassLoader(readClasses(System.in), Launcher.class.getClassLoader());
+            Thread.currentThread().setContextClassLoader(loader);
+            Class<?> program = Class.forName(args[0], true, loader);
+            String benchmark = System.getProperty(BENCHMARK_PROPERTY);
+            Method main = benchmark == null ? program.getMethod("main", String[].class) : null;
+            channel.send(CONTROL, "main-start");
+            try {
+                if (benchmark != null)
+                    new Benchmark(channel, benchmark).run(program);
+                else
+                    main.invoke(null, (Object)Arrays.copyOfRange(args, 1, args.length));
+            } catch (InvocationTargetException i) {
+                throw i.getCause(); //Makes the stack trace look like the program was run directly.
+            } finally {
+                channel.send(CONTROL, "main-end");
+                Runtime runtime = Runtime.getRuntime();
+                channel.send(METRIC, "heapUsed=" + (runtime.totalMemory() - runtime.freeMemory()));
+                channel.send(METRIC, "threads=" + Thread.activeCount());
+            }
+        }
+
+        //Points System.out and System.err at a channel on stdout. When buffered, it's flushed when full, every few
+        //milliseconds, and at exit, so a println in a loop costs a copy instead of a trip down the pipe.
+        static Channel openChannel(boolean buffered) {
+            Channel channel = new Channel(new FileOutputStream(FileDescriptor.out), buffered);
+            System.setOut(new PrintStream(new ChannelStream(channel, OUT)));
+            System.setErr(new PrintStream(new ChannelStream(channel, ERR)));
+            if (buffered) {
+                Flusher flusher = new Flusher(channel, true);
+                flusher.setDaemon(true);
+                flusher.start();
+            }
+            Runtime.getRuntime().addShutdownHook(new Flusher(channel, false));
+            return channel;
+        }
+
+        /**
+         * The child's end of the framed stream. Every frame is MAGIC, its type, a sequence number, the length of
+         * the payload and the payload itself. Output frames hold bytes, control and metric frames hold text.
+         */
+        static class Channel {
+            private final DataOutputStream data;
+            private final boolean buffered;
+            private int sequence;
+
+            Channel(OutputStream stream, boolean buffered) {
+                data = new DataOutputStream(buffered ? new BufferedOutputStream(stream, BUFFER_SIZE) : stream);
+                this.buffered = buffered;
+            }
+
+            synchronized void write(int type, byte[] buffer, int offset, int length) throws IOException {
+                do {
+                    int chunk = Math.min(length, FRAME_LIMIT);
+                    //In one write, so the JVM's own output to stdout (-Xlog, say) can't land in the middle of a small frame.
+                    java.nio.ByteBuffer frame = java.nio.ByteBuffer.allocate(HEADER + chunk);
+                    frame.put((byte)MAGIC).put((byte)type).putInt(sequence++).putInt(chunk).put(buffer, offset, chunk);
+                    data.write(frame.array());
+                    offset += chunk;
+                    length -= chunk;
+                } while (length > 0);
+                if (!buffered) data.flush();
+            }
+
+            synchronized void flush() throws IOException {
+                data.flush();
+            }
+
+            void send(int type, String text) {
+                try {
+                    byte[] bytes = text.getBytes("UTF-8");
+                    write(type, bytes, 0, bytes.length);
+                } catch (IOException i) {
+                    //Playground's gone. Nobody to tell.
+                }
+            }
+        }
+
+        /**
+         * System.out or System.err, as frames of one type on the channel.
+         */
+        static class ChannelStream extends OutputStream {
+            private final Channel channel;
+            private final int type;
+
+            ChannelStream(Channel channel, int type) {
+                this.channel = channel;
+                this.type = type;
+            }
+
+            public void write(byte[] buffer, int offset, int length) throws IOException {
+                channel.write(type, buffer, offset, length);
+            }
+
+            public void write(int b) throws IOException {
+                write(new byte[]{(byte)b}, 0, 1);
+            }
+
+            public void flush() throws IOException {
+                channel.flush();
+            }
+        }
+
+        /**
+         * Reports how the program is doing every TELEMETRY_INTERVAL, as a telemetry frame of comma-separated
+         * name=value pairs, from the platform MXBeans. CPU is a percentage of one core since the last report.
+         */
+        static class Telemetry extends Thread {
+            private final Channel channel;
+
+            Telemetry(Channel channel) {
+                super("Telemetry");
+                setDaemon(true);
+                this.channel = channel;
+            }
+
+            public void run() {
+                java.lang.management.MemoryMXBean memory = java.lang.management.ManagementFactory.getMemoryMXBean();
+                java.lang.management.ThreadMXBean threads = java.lang.management.ManagementFactory.getThreadMXBean();
+                java.lang.management.OperatingSystemMXBean os = java.lang.management.ManagementFactory.getOperatingSystemMXBean();
+                long lastCpu = getCpuTime(os), lastTime = System.nanoTime();
+                while (true) {
+                    try {
+                        Thread.sleep(TELEMETRY_INTERVAL);
+                    } catch (InterruptedException i) {
+                        return;
+                    }
+                    long gcCount = 0, gcTime = 0;
+                    for (java.lang.management.GarbageCollectorMXBean gc : java.lang.management.ManagementFactory.getGarbageCollectorMXBeans()) {
+                        gcCount += Math.max(0, gc.getCollectionCount());
+                        gcTime += Math.max(0, gc.getCollectionTime());
+                    }
+                    long cpu = getCpuTime(os), time = System.nanoTime();
+                    java.lang.management.MemoryUsage heap = memory.getHeapMemoryUsage();
+                    channel.send(TELEMETRY, "heapUsed=" + heap.getUsed() + ",heapCommitted=" + heap.getCommitted()
+                        + ",gcCount=" + gcCount + ",gcTime=" + gcTime + ",threads=" + threads.getThreadCount()
+                        + ",cpu=" + (cpu < 0 ? -1 : (cpu - lastCpu) * 100 / Math.max(1, time - lastTime)));
+                    lastCpu = cpu;
+                    lastTime = time;
+                }
+            }
+
+            //CPU time used by the whole JVM so far, in nanoseconds, or -1 if this JVM won't say.
+            private static long getCpuTime(java.lang.management.OperatingSystemMXBean os) {
+                if (os instanceof com.sun.management.OperatingSystemMXBean)
+                    return ((com.sun.management.OperatingSystemMXBean)os).getProcessCpuTime();
+                return -1;
+            }
+        }
+
+        /**
+         * Samples the stacks of the program's running threads every so often, and sends them folded (one line of
+         * "thread;outermost frame;...;innermost frame count" per distinct stack) as the JVM shuts down. Only
+         * threads in the main thread group count, which leaves out the JVM's own and the Launcher's.
+         */
+        static class Profiler extends Thread {
+            private final Channel channel;
+            private final int interval;
+            private final Map<String, Integer> stacks = new HashMap<String, Integer>();
+            private int ticks;
+
+            Profiler(Channel channel, int interval) {
+                super("Profiler");
+                setDaemon(true);
+                this.channel = channel;
+                this.interval = interval;
+                Runtime.getRuntime().addShutdownHook(new ProfileSender(this));
+            }
+
+            public void run() {
+                while (true) {
+                    try {
+                        Thread.sleep(interval);
+                    } catch (InterruptedException i) {
+                        return;
+                    }
+                    sample();
+                }
+            }
+
+            private synchronized void sample() {
+                ticks++;
+                for (Map.Entry<Thread, StackTraceElement[]> e : Thread.getAllStackTraces().entrySet()) {
+                    Thread t = e.getKey();
+                    ThreadGroup group = t.getThreadGroup();
+                    if (t.getState() != Thread.State.RUNNABLE || group == null || !group.getName().equals("main")) continue;
+                    if (t instanceof Profiler || t instanceof Telemetry || t instanceof Flusher) continue;
+
+                    StringBuilder stack = new StringBuilder(t.getName().replace(';', ':'));
+                    StackTraceElement[] frames = e.getValue();
+                    for (int i = frames.length - 1; i >= 0; i--) {
+                        String c = frames[i].getClassName();
+                        //How the Launcher got to main isn't interesting.
+                        if (c.startsWith(Launcher.class.getName()) || c.startsWith("jdk.internal.reflect.") || c.equals("java.lang.reflect.Method"))
+                            continue;
+                        stack.append(';').append(c).append('.').append(frames[i].getMethodName()).append(':').append(frames[i].getLineNumber());
+                    }
+                    Integer count = stacks.get(stack.toString());
+                    stacks.put(stack.toString(), count == null ? 1 : count + 1);
+                }
+            }
+
+            //The interval and number of ticks on the first line, then the folded stacks.
+            synchronized void report() {
+                StringBuilder folded = new StringBuilder(interval + " " + ticks + "\n");
+                for (Map.Entry<String, Integer> e : stacks.entrySet())
+                    folded.append(e.getKey()).append(' ').append(e.getValue()).append('\n');
+                channel.send(PROFILE, folded.toString());
+                try {channel.flush();} catch (IOException i) {} //The other hooks may have flushed already.
+            }
+        }
+
+        /**
+         * Sends the profile as the JVM shuts down, however the program ended, short of being killed outright.
+         */
+        static class ProfileSender extends Thread {
+            private final Profiler profiler;
+
+            ProfileSender(Profiler profiler) {
+                super("Profile sender");
+                this.profiler = profiler;
+            }
+
+            public void run() {
+                profiler.report();
+            }
+        }
+
+        /**
+         * Times a program's benchmarks: static methods with no arguments, named bench-something or annotated with
+         * a Benchmark annotation of the program's own (which needs @Retention(RUNTIME) to be seen). Each gets warmup iterations, which are thrown away, then
+         * measured ones, where an iteration calls the method over and over for a fixed time. What the method
+         * returns goes into a blackhole, so the JIT can't leave the work out. The time per call of each measured
+         * iteration is sent back; an empty method is timed first, as "(overhead)", to show what calling costs.
+         */
+        static class Benchmark {
+            private static volatile Object trap = new Object(); //Nothing returns this, but the JIT can't know that
+
+            private final Channel channel;
+            private final int warmup, measurement;
+            private final long iterationTime; //Nanoseconds
+            private long batch; //Calls between looks at the clock
+
+            //Settings are "warmup iterations,measured iterations,milliseconds per iteration".
+            Benchmark(Channel channel, String settings) {
+                this.channel = channel;
+                String[] split = settings.split(",");
+                warmup = Integer.parseInt(split[0]);
+                measurement = Integer.parseInt(split[1]);
+                iterationTime = Long.parseLong(split[2]) * 1000000;
+            }
+
+            void run(Class<?> program) throws Throwable {
+                Method[] methods = program.getDeclaredMethods();
+                Arrays.sort(methods, new Comparator<Method>() {
+                        public int compare(Method a, Method b) {return a.getName().compareTo(b.getName());}
+                    });
+                checkRetention(program);
+                java.lang.invoke.MethodHandles.Lookup lookup = java.lang.invoke.MethodHandles.lookup();
+                boolean overhead = false;
+                for (Method m : methods) {
+                    if (!isBenchmark(m)) continue;
+                    if (!Modifier.isStatic(m.getModifiers()) || m.getParameterCount() > 0) {
+                        System.err.println("Skipping " + m.getName() + ", since benchmarks have to be static and take no arguments.");
+                        continue;
+                    }
+                    if (!overhead) {
+                        measure("(overhead)", lookup.findStatic(Benchmark.class, "empty", java.lang.invoke.MethodType.methodType(Object.class)));
+                        overhead = true;
+                    }
+                    m.setAccessible(true);
+                    measure(m.getName(), lookup.unreflect(m).asType(java.lang.invoke.MethodType.methodType(Object.class)));
+                }
+            }
+
+            //An annotation without @Retention(RUNTIME) isn't there at run time, so the methods it marks would be
+            //quietly left out. Looks for a Benchmark annotation in the program, and says so if it's like that.
+            private static void checkRetention(Class<?> program) {
+                ArrayList<Class<?>> candidates = new ArrayList<Class<?>>(Arrays.asList(program.getDeclaredClasses()));
+                try {
+                    candidates.add(Class.forName("Benchmark", false, program.getClassLoader()));
+                } catch (ClassNotFoundException c) {}
+                for (Class<?> c : candidates) {
+                    if (!c.isAnnotation() || !c.getSimpleName().equals("Benchmark")) continue;
+                    java.lang.annotation.Retention retention = c.getAnnotation(java.lang.annotation.Retention.class);
+                    if (retention == null || retention.value() != java.lang.annotation.RetentionPolicy.RUNTIME)
+                        System.err.println("The methods marked @Benchmark can't be found, since " + c.getName() + " isn't " +
+                            "@Retention(RetentionPolicy.RUNTIME).");
+                }
+            }
+
+            private static boolean isBenchmark(Method m) {
+                if (m.getName().startsWith("bench")) return true;
+                for (java.lang.annotation.Annotation a : m.getDeclaredAnnotations())
+                    if (a.annotationType().getSimpleName().equals("Benchmark")) return true;
+                return false;
+            }
+
+            private void measure(String name, java.lang.invoke.MethodHandle method) throws Throwable {
+                batch = 1;
+                time(method, warmup);
+                StringBuilder result = new StringBuilder(name);
+                for (double t : time(method, measurement))
+                    result.append(' ').append(t);
+                channel.send(BENCHMARK, result.toString());
+            }
+
+            //Nanoseconds per call for each iteration.
+            private double[] time(java.lang.invoke.MethodHandle method, int iterations) throws Throwable {
+                double[] times = new double[iterations];
+                for (int i = 0; i < iterations; i++) {
+                    long calls = 0, start = System.nanoTime(), now = start;
+                    while (now - start < iterationTime) {
+                        for (long j = 0; j < batch; j++)
+                            consume((Object)method.invokeExact());
+                        calls += batch;
+                        long last = now;
+                        now = System.nanoTime();
+                        //Reading the clock costs something too, so quick methods get bigger batches.
+                        if (now - last < iterationTime / 100) batch *= 2;
+                    }
+                    times[i] = (double)(now - start) / calls;
+                }
+                return times;
+            }
+
+            private static void consume(Object result) {
+                if (result == trap) trap = null;
+            }
+
+            private static Object empty() {
+                return null;
+            }
+        }
+
+        /**
+         * Flushes the channel, either every FLUSH_INTERVAL or just the once (as a shutdown hook).
+         * A named class, not an anonymous one, so it's easy to list for the launcher jar.
+         */
+        static class Flusher extends Thread {
+            private final Channel channel;
+            private final boolean repeat;
+
+            Flusher(Channel channel, boolean repeat) {
+                super("Output flusher");
+                this.channel = channel;
+                this.repeat = repeat;
+            }
+
+            public void run() {
+                do {
+                    if (repeat) {
+                        try {
+                            Thread.sleep(FLUSH_INTERVAL);
+                        } catch (InterruptedException i) {
+                            return;
+                        }
+                    }
+                    try {
+                        channel.flush();
+                    } catch (IOException e) {
+                        return;
+                    }
+                } while (repeat);
+            }
+        }
+    }
+
+    /**
+     * Keeps a couple of Launcher JVMs booted and waiting on their stdin, so running in-memory classes only costs
+     * defining and running them. Each worker runs one program and is then thrown away like any other child JVM;
+     * a replacement is started in the background as soon as one is taken. The pool is keyed on one command, set
+     * by prepare() when the run options or libraries change; a run with any other command (like a full-JDK
+     * fallback) just starts its own JVM, leaving the waiting workers alone.
+     */
+    private static class WorkerPool {
+        static final int SIZE = 2;
+
+        private final ArrayDeque<Process> idle = new ArrayDeque<Process>();
+        private final ExecutorService starter = Executors.newSingleThreadExecutor(daemonThreads("Worker JVM starter"));
+        private ArrayList<String> command;
+        private int starting; //Workers queued up or booting
+
+        //Hands out a waiting worker started with this command, or returns null if there isn't one.
+        synchronized Process take(ArrayList<String> command) {
+            if (!command.equals(this.command)) return null;
+            Process worker = null;
+            while (worker == null && !idle.isEmpty()) {
+                worker = idle.poll();
+                if (!worker.isAlive()) worker = null;
+            }
+            fill();
+            return worker;
+        }
+
+        //Starts filling the pool with workers for this command, retiring any started with another.
+        synchronized void prepare(ArrayList<String> command) {
+            if (!command.equals(this.command)) {
+                shutdown();
+                this.command = new ArrayList<String>(command);
+            }
+            fill();
+        }
+
+        //Retires every waiting worker.
+        synchronized void shutdown() {
+            for (Process p : idle) p.destroy();
+            idle.clear();
+        }
+
+        //Tops the pool back up in the background.
+        private synchronized void fill() {
+            final ArrayList<String> command = this.command;
+            for (; idle.size() + starting < SIZE; starting++) {
+                starter.execute(new Runnable() {
+                        public void run() {
+                            Process worker = null;
+                            try {
+                                worker = new ProcessBuilder(command).start();
+                            } catch (IOException e) {
+                                //Runs will just start their own JVM.
+                            }
+                            synchronized (WorkerPool.this) {
+                                starting--;
+                                if (worker != null && command.equals(WorkerPool.this.command)) {
+                                    idle.add(worker);
+                                    return;
+                                }
+                            }
+                            if (worker != null) worker.destroy(); //The command changed while it was starting.
+                        }
+                    });
+            }
+        }
+    }
+
+    /**
+     * The builds kept in the working directory under one name prefix, like the class data archive and the runtime
+     * image, which every Playground the user has open shares. Building and cleaning up happen under a lock on the
+     * prefix, so two Playgrounds never build at once. Each Playground also holds a shared lock on the build it's
+     * using, and a cleanup only deletes builds nobody holds, so a Playground still on the old JDK keeps its own.
+     */
+    private static class SharedBuilds {
+        private final File directory;
+        private final String prefix;
+        private FileChannel used; //Holds the shared lock on the build in use
+
+        SharedBuilds(File directory, String prefix) {
+            this.directory = directory;
+            this.prefix = prefix;
+        }
+
+        //Waits for any other Playground to finish building. Closing the lock's channel releases it.
+        FileLock lock() throws IOException {
+            FileChannel channel = FileChannel.open(new File(directory, prefix + "lock").toPath(),
+                java.nio.file.StandardOpenOption.CREATE, java.nio.file.StandardOpenOption.WRITE);
+            try {
+                return channel.lock();
+            } catch (IOException i) {
+                channel.close();
+                throw i;
+            }
+        }
+
+        //A name for a file being built, that won't clash with another Playground's.
+        File getTemporary(String name) {
+            return new File(directory, name + "." + ProcessHandle.current().pid() + ".tmp");
+        }
+
+        //Marks the build with that name as in use by this Playground, and any earlier one as no longer in use.
+        synchronized void use(String name) throws IOException {
+            if (used != null) used.close();
+            used = FileChannel.open(new File(directory, name + ".use").toPath(), java.nio.file.StandardOpenOption.CREATE,
+                java.nio.file.StandardOpenOption.READ, java.nio.file.StandardOpenOption.WRITE);
+            used.lock(0, Long.MAX_VALUE, true);
+        }
+
+        //Deletes every other build that no Playground is using, and anything half-built. Call it under lock().
+        void clean(String current) {
+            File[] files = directory.listFiles();
+            if (files == null) return;
+            Set<String> others = new TreeSet<String>();
+            for (File f : files) {
+                String name = f.getName();
+                if (!name.startsWith(prefix) || name.equals(prefix + "lock")) continue;
+                if (name.endsWith(".tmp")) delete(f); //Nobody else is building, so it was left by one that died.
+                else if (!name.startsWith(current + ".") && !name.equals(current)) others.add(name.split("\\.")[0]);
+            }
+            for (String other : others) {
+                try {
+                    FileChannel channel = FileChannel.open(new File(directory, other + ".use").toPath(),
+                        java.nio.file.StandardOpenOption.CREATE, java.nio.file.StandardOpenOption.WRITE);
+                    try {
+                        if (channel.tryLock() == null) continue; //Another Playground is still using it.
+                        for (File f : files)
+                            if (f.getName().equals(other) || f.getName().startsWith(other + ".") && !f.getName().endsWith(".use"))
+                                delete(f);
+                    } finally {
+                        channel.close();
+                    }
+                    new File(directory, other + ".use").delete();
+                } catch (IOException i) {
+                    //Leave it for next time.
+                } catch (OverlappingFileLockException o) {
+                    //This Playground is using it.
+                }
+            }
+        }
+
+        private static void delete(File file) {
+            File[] files = file.listFiles();
+            if (files != null)
+                for (File f : files) delete(f);
+            file.delete();
+        }
+    }
+
+    /**
+     * Maintains a dynamic AppCDS archive for child JVMs, so the JDK classes a typical program needs (Swing and AWT
+     * especially) are mapped in already parsed instead of loaded one by one. The archive is dumped from a training
+     * run of a small Swing program. CDS can't archive a class path with folders of classes on it, so the Launcher
+     * is copied into a jar of its own first. Both files are named after a hash of the runtime and the Launcher, so
+     * a new JDK or a rebuilt Playground gets a fresh archive and the stale ones are deleted (see SharedBuilds). An
+     * archive only works with the runtime it was dumped from, so programs that need the full JDK (see
+     * RuntimeImage) go without.
+     */
+    private static class ClassDataArchive {
+        static final String PREFIX = "launcher-";
+        static final String[] CLASSES = {"Playground", "Playground$Launcher", "Playground$Launcher$Channel",
+            "Playground$Launcher$ChannelStream", "Playground$Launcher$Flusher", "Playground$Launcher$Telemetry",
+            "Playground$Launcher$Profiler", "Playground$Launcher$ProfileSender",
+            "Playground$Launcher$Benchmark", "Playground$Launcher$Benchmark$1", "Playground$ByteClassLoader",
+            "Playground$ClassDataArchive$Training", "Playground$ClassDataArchive$Training$Listener"};
+        static final int TRAINING_TIMEOUT = 60; //Seconds
+
+        private final File directory;
+        private final SharedBuilds builds;
+        private volatile File jar, archive;
+        private volatile String archiveHome;
+
+        ClassDataArchive(File directory) {
+            this.directory = directory;
+            builds = new SharedBuilds(directory, PREFIX);
+        }
+
+        //The options that make a child JVM started from this java.home use the archive, or none if there isn't one.
+        ArrayList<String> getOptions(String home) {
+            ArrayList<String> options = new ArrayList<String>();
+            if (archive != null && home.equals(archiveHome)) {
+                options.add("-XX:SharedArchiveFile=" + archive.getPath());
+                options.add("-Xshare:auto"); //Runs without it rather than failing if the archive is unusable.
+            }
+            return options;
+        }
+
+        //Where a child JVM finds the Launcher. The archive only works if this comes first on the class path.
+        String getLauncherPath() {
+            return jar != null ? jar.getPath() : getPlaygroundPath();
+        }
+
+        //Builds the jar and, if need be, an archive for child JVMs started from the given java.home. Takes a few
+        //seconds the first time; see prepareRuntime().
+        void build(String home) throws Exception {
+            //Dynamic archives need JDK 13 or later.
+            if (Runtime.version().feature() < 13) return;
+
+            Map<String, byte[]> classes = new TreeMap<String, byte[]>();
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            digest.update((home + "\n" + System.getProperty("java.vm.version") + "\n").getBytes("UTF-8"));
+            for (String name : CLASSES) {
+                InputStream in = Playground.class.getResourceAsStream("/" + name + ".class");
+                if (in == null) throw new IOException("Can't find " + name);
+                try {classes.put(name, in.readAllBytes());} finally {in.close();}
+                digest.update(classes.get(name));
+            }
+            StringBuilder hex = new StringBuilder();
+            for (byte b : digest.digest())
+                hex.append(String.format("%02x", b));
+            String name = PREFIX + hex.substring(0, 16);
+
+            FileLock lock = builds.lock();
+            try {
+                builds.use(name);
+                builds.clean(name); //The files from other JDKs and older builds.
+                build(home, name, classes);
+            } finally {
+                lock.channel().close();
+            }
+        }
+
+        private void build(String home, String name, Map<String, byte[]> classes) throws Exception {
+            File jar = new File(directory, name + ".jar");
+            if (!jar.exists()) {
+                File temporary = builds.getTemporary(name + ".jar");
+                java.util.jar.JarOutputStream out = new java.util.jar.JarOutputStream(new FileOutputStream(temporary));
+                try {
+                    for (Map.Entry<String, byte[]> e : classes.entrySet()) {
+                        out.putNextEntry(new java.util.jar.JarEntry(e.getKey() + ".class"));
+                        out.write(e.getValue());
+                        out.closeEntry();
+                    }
+                } finally {
+                    out.close();
+                }
+                if (!temporary.renameTo(jar)) throw new IOException("Can't write " + jar);
+            }
+            this.jar = jar;
+
+            File archive = new File(directory, name + ".jsa");
+            if (!archive.exists()) {
+                if(verboseCompiling) println("Building a class data archive for faster program startup...", progErr);
+                File temporary = builds.getTemporary(name + ".jsa");
+                ArrayList<String> command = new ArrayList<String>();
+                command.add(getJava(home));
+                command.add("-XX:ArchiveClassesAtExit=" + temporary.getPath());
+                command.add("-cp");
+                command.add(jar.getPath());
+                command.add(Training.class.getName());
+                Process training = new ProcessBuilder(command).redirectErrorStream(true)
+                    .redirectOutput(ProcessBuilder.Redirect.DISCARD).start();
+                if (!training.waitFor(TRAINING_TIMEOUT, TimeUnit.SECONDS)) {
+                    training.destroyForcibly();
+                    throw new IOException("the training run took too long");
+                }
+                if (!temporary.exists() || !temporary.renameTo(archive))
+                    throw new IOException("the training run didn't write an archive");
+                if(verboseCompiling) println("Class data archive is ready.", progErr);
+            }
+            this.archive = archive;
+            archiveHome = home;
+        }
+
+        /**
+         * The training run. Does what the generated Main's imports are there for, so those classes make it into
+         * the archive. Without a display, it gets as far as it can.
+         */
+        static class Training {
+            public static void main(String[] args) {
+                ArrayList<String> list = new ArrayList<String>(Arrays.asList("a", "b"));
+                Collections.sort(list);
+                new HashMap<String, Integer>().put(String.valueOf(list), list.size());
+                System.out.println(String.format("%s %d", new Scanner("1 2").nextInt(), Math.round(Math.random())));
+                try {
+                    new BufferedReader(new StringReader("")).readLine();
+                    JFrame frame = new JFrame("Training");
+                    JPanel panel = new JPanel(new BorderLayout());
+                    JButton button = new JButton("Button");
+                    button.addActionListener(new Listener());
+                    panel.add(button, BorderLayout.NORTH);
+                    panel.add(new JLabel("Label"), BorderLayout.CENTER);
+                    panel.add(new JTextField(), BorderLayout.SOUTH);
+                    frame.add(panel);
+                    frame.setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
+                    frame.pack();
+                    frame.dispose();
+                } catch (Throwable t) {
+                    //No display. The archive just won't cover as much.
+                }
+                System.exit(0);
+            }
+
+            //A named class, not an anonymous one, so it can be listed in CLASSES.
+            static class Listener implements ActionListener {
+                public void actionPerformed(ActionEvent a) {}
+            }
+        }
+    }
+
+    /**
+     * A trimmed copy of the JDK, made with jlink, for child JVMs to start from. It holds only the modules the
+     * generated Main's imports need, plus whatever the libraries need according to jdeps, so there's less runtime
+     * to map in on every start. Programs that use a module outside it run on the full JDK instead. Like the class
+     * data archive, it's named after a hash of what went into it, rebuilt when any of that changes, and shared
+     * with other Playgrounds through SharedBuilds.
+     */
+    private static class RuntimeImage {
+        static final String PREFIX = "runtime-";
+        static final String[] MODULES = {"java.base", "java.desktop", //java.util, java.io, java.awt and javax.swing
+            "java.management", "jdk.management"}; //For the Launcher's telemetry
+        static final int DUMP_TIMEOUT = 60; //Seconds
+
+        private final File directory;
+        private final SharedBuilds builds;
+        private volatile File home;
+        private volatile Set<String> modules;
+
+        RuntimeImage(File directory) {
+            this.directory = directory;
+            builds = new SharedBuilds(directory, PREFIX);
+        }
+
+        //The image's java.home, or null while it isn't ready.
+        String getHome() {
+            return home != null ? home.getPath() : null;
+        }
+
+        //Returns a module the classes use that isn't in the image, or null if the image has all of them.
+        String getMissingModule(Map<String, byte[]> classes) {
+            ClassLoader platform = ClassLoader.getPlatformClassLoader();
+            for (byte[] bytes : classes.values()) {
+                Set<String> references;
+                try {
+                    references = ClassScanner.getReferences(bytes);
+                } catch (IOException i) {
+                    return "an unknown module";
+                }
+                for (String r : references) {
+                    if (r.indexOf('.') >= 0 || r.startsWith("[")) continue; //Members and arrays; their classes are listed too.
+                    try {
+                        String module = Class.forName(r.replace('/', '.'), false, platform).getModule().getName();
+                        if (module != null && !modules.contains(module)) return module;
+                    } catch (ClassNotFoundException c) {
+                        //The program's own classes, or a library's.
+                    } catch (LinkageError l) {}
+                }
+            }
+            return null;
+        }
+
+        void build() throws Exception {
+            java.util.spi.ToolProvider jlink = java.util.spi.ToolProvider.findFirst("jlink").orElse(null);
+            if (jlink == null) return; //Not a full JDK.
+
+            TreeSet<String> wanted = new TreeSet<String>(Arrays.asList(MODULES));
+            wanted.addAll(getLibraryModules());
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            digest.update((System.getProperty("java.home") + "\n" + System.getProperty("java.vm.version") + "\n" + wanted).getBytes("UTF-8"));
+            StringBuilder hex = new StringBuilder();
+            for (byte b : digest.digest())
+                hex.append(String.format("%02x", b));
+            String name = PREFIX + hex.substring(0, 16);
+
+            FileLock lock = builds.lock();
+            try {
+                builds.use(name);
+                builds.clean(name); //The images from other JDKs and other libraries.
+                build(jlink, name, wanted);
+            } finally {
+                lock.channel().close();
+            }
+        }
+
+        private void build(java.util.spi.ToolProvider jlink, String name, Set<String> wanted) throws Exception {
+            File image = new File(directory, name);
+            if (!new File(image, "release").exists()) {
+                if(verboseCompiling) println("Building a trimmed runtime for programs (" + String.join(", ", wanted) + ")...", progErr);
+                SharedBuilds.delete(image); //Half-built by one that died before it got the release file in.
+                File temporary = builds.getTemporary(name);
+                StringWriter output = new StringWriter();
+                int result = jlink.run(new PrintWriter(output), new PrintWriter(output), "--add-modules", String.join(",", wanted),
+                        "--strip-debug", "--no-header-files", "--no-man-pages", "--output", temporary.getPath());
+                if (result != 0) throw new IOException(output.toString().trim());
+
+                //jlink doesn't make the default class data archive, and class data archives of our own build on it.
+                Process dump = new ProcessBuilder(getJava(temporary.getPath()), "-Xshare:dump").redirectErrorStream(true)
+                    .redirectOutput(ProcessBuilder.Redirect.DISCARD).start();
+                if (!dump.waitFor(DUMP_TIMEOUT, TimeUnit.SECONDS)) dump.destroyForcibly();
+                if (!temporary.renameTo(image)) throw new IOException("Can't write " + image);
+                if(verboseCompiling) println("Trimmed runtime is ready.", progErr);
+            }
+
+            //jlink pulls in whatever the modules require, so the release file has the full list.
+            Properties release = new Properties();
+            InputStream in = new FileInputStream(new File(image, "release"));
+            try {release.load(in);} finally {in.close();}
+            modules = new HashSet<String>(Arrays.asList(release.getProperty("MODULES", "").replace("\"", "").trim().split("\\s+")));
+            home = image;
+        }
+
+        //Asks jdeps which modules the libraries use.
+        private Set<String> getLibraryModules() throws IOException {
+            TreeSet<String> modules = new TreeSet<String>();
+            ArrayList<String> arguments = new ArrayList<String>(Arrays.asList("--print-module-deps", "--ignore-missing-deps"));
+            for (File library : libraryManager.getLibraries())
+                arguments.add(library.getPath());
+            if (arguments.size() == 2) return modules;
+
+            java.util.spi.ToolProvider jdeps = java.util.spi.ToolProvider.findFirst("jdeps").orElse(null);
+            if (jdeps == null) throw new IOException("jdeps is missing");
+            StringWriter output = new StringWriter();
+            if (jdeps.run(new PrintWriter(output), new PrintWriter(output), arguments.toArray(new String[arguments.size()])) != 0)
+                throw new IOException("jdeps couldn't read the libraries: " + output.toString().trim());
+            for (String module : output.toString().trim().split(","))
+                if (!module.trim().isEmpty()) modules.add(module.trim());
+            return modules;
+        }
+    }
+
+    /**
+     * A debugger connection to a running program, for pushing new method bodies into it instead of restarting it.
+     * Playground listens on a local port and the child's JDWP agent connects to it as the program starts. When
+     * the program is run again, the changed classes are redefined through JDI. The JVM itself refuses anything
+     * beyond method bodies (new fields, new methods, changed signatures), and that means a normal restart.
+     */
+    private static class HotSwapSession {
+        static final int ATTACH_TIMEOUT = 10000; //Milliseconds
+
+        private final String name;
+        private Map<String, byte[]> classes;
+        private final com.sun.jdi.connect.ListeningConnector connector;
+        private final Map<String, com.sun.jdi.connect.Connector.Argument> arguments;
+        private final String address;
+        private volatile com.sun.jdi.VirtualMachine vm;
+
+        HotSwapSession(String name, Map<String, byte[]> classes) throws IOException {
+            this.name = name;
+            this.classes = classes;
+            com.sun.jdi.connect.ListeningConnector socket = null;
+            for (com.sun.jdi.connect.ListeningConnector c : com.sun.jdi.Bootstrap.virtualMachineManager().listeningConnectors())
+                if (c.name().equals("com.sun.jdi.SocketListen")) socket = c;
+            if (socket == null) throw new IOException("No socket connector for the debugger");
+            connector = socket;
+            arguments = connector.defaultArguments();
+            arguments.get("localAddress").setValue("127.0.0.1");
+            arguments.get("port").setValue("0");
+            arguments.get("timeout").setValue(String.valueOf(ATTACH_TIMEOUT));
+            try {
+                address = connector.startListening(arguments);
+            } catch (com.sun.jdi.connect.IllegalConnectorArgumentsException e) {
+                throw new IOException(e.getMessage());
+            }
+        }
+
+        //The option that makes the child connect back to us. It doesn't wait for us before running.
+        String getOption() {
+            return "-agentlib:jdwp=transport=dt_socket,server=n,suspend=n,address=" + address;
+        }
+
+        //Waits for the child to connect, in the background.
+        void attach() {
+            Thread t = new Thread("Hot-swap debugger") {
+                    public void run() {
+                        try {
+                            vm = connector.accept(arguments);
+                        } catch (Exception e) {
+                            return; //Never connected. Runs restart as usual.
+                        } finally {
+                            try {connector.stopListening(arguments);} catch (Exception e) {}
+                        }
+                        //Nothing is asked for, but whatever events come still need taking off the queue.
+                        try {
+                            while (true)
+                                vm.eventQueue().remove().resume();
+                        } catch (Exception e) {
+                            //Disconnected.
+                        }
+                    }
+                };
+            t.setDaemon(true);
+            t.start();
+        }
+
+        //Pushes the changed classes into the program. Returns why it couldn't, or null if it did.
+        synchronized String redefine(String name, Map<String, byte[]> classes) {
+            com.sun.jdi.VirtualMachine vm = this.vm;
+            if (!name.equals(this.name)) return "it's a different program";
+            if (vm == null) return "the debugger never attached";
+            if (!vm.canRedefineClasses()) return "the JVM can't redefine classes";
+            if (!classes.keySet().equals(this.classes.keySet())) return "classes were added or removed";
+
+            Map<com.sun.jdi.ReferenceType, byte[]> changes = new HashMap<com.sun.jdi.ReferenceType, byte[]>();
+            try {
+                for (Map.Entry<String, byte[]> e : classes.entrySet()) {
+                    if (Arrays.equals(e.getValue(), this.classes.get(e.getKey()))) continue;
+                    java.util.List<com.sun.jdi.ReferenceType> types = vm.classesByName(e.getKey());
+                    //The Launcher still has the old bytes for anything it hasn't loaded yet.
+                    if (types.isEmpty()) return e.getKey() + " hasn't been loaded yet";
+                    for (com.sun.jdi.ReferenceType type : types)
+                        changes.put(type, e.getValue());
+                }
+                vm.redefineClasses(changes);
+            } catch (UnsupportedOperationException u) {
+                return "the changes go beyond method bodies";
+            } catch (com.sun.jdi.VMDisconnectedException d) {
+                return "the program has exited";
+            } catch (RuntimeException r) {
+                return "the JVM wouldn't take the new classes (" + r + ")";
+            }
+            this.classes = classes;
+            return null;
+        }
+
+        void dispose() {
+            try {connector.stopListening(arguments);} catch (Exception e) {}
+            try {
+                if (vm != null) vm.dispose();
+            } catch (com.sun.jdi.VMDisconnectedException d) {}
+        }
+    }
+
+    /**
+     * Keeps an eye on one child JVM and every process it starts. Enforces the wall-clock and CPU time limits by
+     * stopping the whole tree, and reports what the run used once it's over. CPU time and memory are sampled, so
+     * they're as of the last check before the program exited. Memory comes from /proc, so it's Linux only.
+     */
+    private static class Watchdog {
+        static final int INTERVAL = 250; //Milliseconds between checks
+        static final int GRACE = 1000; //Milliseconds between asking a process to stop and making it
+        private static final ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor(daemonThreads("Watchdog"));
+
+        private final String name;
+        private final Process process;
+        private final long start = System.nanoTime();
+        private final Map<ProcessHandle, Long> cpuTimes = new HashMap<ProcessHandle, Long>(); //Nanoseconds, per process
+        private long peakMemory = -1; //Bytes, or -1 if it can't be read
+        private String stopReason;
+        private final ScheduledFuture<?> check;
+
+        Watchdog(String name, Process process) {
+            this.name = name;
+            this.process = process;
+            check = timer.scheduleAtFixedRate(new Runnable() {
+                        public void run() {check();}
+                    }, 0, INTERVAL, TimeUnit.MILLISECONDS);
+            process.onExit().thenAccept(new java.util.function.Consumer<Process>() {
+                    public void accept(Process p) {finish(p.exitValue());}
+                });
+        }
+
+        private synchronized void check() {
+            if (!process.isAlive() || stopReason != null) return;
+
+            ArrayList<ProcessHandle> live = new ArrayList<ProcessHandle>();
+            live.add(process.toHandle());
+            Iterator<ProcessHandle> descendants = process.descendants().iterator();
+            while (descendants.hasNext())
+                live.add(descendants.next());
+
+            long memory = 0;
+            for (ProcessHandle p : live) {
+                Optional<java.time.Duration> cpu = p.info().totalCpuDuration();
+                if (cpu.isPresent()) cpuTimes.put(p, cpu.get().toNanos());
+                else if (!cpuTimes.containsKey(p)) cpuTimes.put(p, 0L); //Still wanted at the end, for cleaning up.
+                long rss = readMemory(p.pid(), "VmRSS:");
+                memory = rss < 0 || memory < 0 ? -1 : memory + rss;
+            }
+            peakMemory = Math.max(peakMemory, Math.max(memory, readMemory(process.pid(), "VmHWM:")));
+
+            long cpu = getCpuTime();
+            double wall = (System.nanoTime() - start) / 1e9;
+            if (wallTimeLimit > 0 && wall > wallTimeLimit)
+                stop("it ran for more than " + wallTimeLimit + " seconds");
+            else if (cpuTimeLimit > 0 && cpu / 1e9 > cpuTimeLimit)
+                stop("it used more than " + cpuTimeLimit + " seconds of CPU time");
+        }
+
+        synchronized boolean isStopping() {
+            return stopReason != null;
+        }
+
+        private void stop(String reason) {
+            stopReason = reason;
+            println("Stopping " + name + ", since " + reason + ".", warning);
+            destroyTree(process);
+            timer.schedule(new Runnable() {
+                    public void run() {
+                        for (ProcessHandle p : getTree())
+                            p.destroyForcibly();
+                    }
+                }, GRACE, TimeUnit.MILLISECONDS);
+        }
+
+        private synchronized void finish(int exitCode) {
+            check.cancel(false);
+
+            //Whatever it started and left behind goes too.
+            for (ProcessHandle p : getTree())
+                p.destroy();
+
+            StringBuilder report = new StringBuilder(name);
+            report.append(stopReason != null ? " was stopped" : " exited with status " + exitCode);
+            report.append(String.format(Locale.ROOT, " after %.1fs (CPU %.1fs", (System.nanoTime() - start) / 1e9, getCpuTime() / 1e9));
+            if (peakMemory >= 0)
+                report.append(String.format(Locale.ROOT, ", peak memory %.1f MB", peakMemory / 1048576.0));
+            report.append(").");
+            println(report.toString(), progErr);
+        }
+
+        private synchronized ArrayList<ProcessHandle> getTree() {
+            ArrayList<ProcessHandle> tree = new ArrayList<ProcessHandle>();
+            for (ProcessHandle p : cpuTimes.keySet())
+                if (p.isAlive()) tree.add(p);
+            return tree;
+        }
+
+        private long getCpuTime() {
+            long total = 0;
+            for (long cpu : cpuTimes.values())
+                total += cpu;
+            return total;
+        }
+
+        //Reads a memory figure (like "VmRSS:") for a process from /proc, in bytes. Returns -1 if it can't.
+        private static long readMemory(long pid, String field) {
+            try {
+                BufferedReader reader = new BufferedReader(new FileReader("/proc/" + pid + "/status"));
+                try {
+                    String line;
+                    while ((line = reader.readLine()) != null)
+                        if (line.startsWith(field))
+                            return Long.parseLong(line.substring(field.length()).trim().split("\\s+")[0]) * 1024;
+                } finally {
+                    reader.close();
+                }
+            } catch (Exception e) {}
+            return -1;
+        }
+    }
+
+    /**
+     * Runs a program inside Playground's own JVM, skipping JVM startup altogether. The classes are defined in a
+     * throwaway class loader that can't see Playground, and main runs on its own thread in its own thread group,
+     * so anything it prints can be told apart from everything else (see RoutedStream). Once the run is stopped,
+     * its output is dropped, and a leak check warns if its classes don't get garbage collected.
+     * The time limits are enforced on the run's threads the way the Watchdog enforces them on a JVM. That takes
+     * Thread.stop(), which is gone as of Java 20, so there (or once a run has shrugged it off) everything forks.
+     */
+    private static class InProcessRun {
+        static final int LEAK_CHECK_DELAY = 5000; //Milliseconds after stopping before checking for a leak
+        private static final ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor(daemonThreads("In-process watchdog"));
+        private static volatile boolean unstoppable; //An earlier run is still going, and nothing can stop it
+
+        private final String name;
+        private final RunTimings timings;
+        private final RunGroup group;
+        private URLClassLoader libraries;
+        private ClassLoader loader;
+        private volatile boolean stopped;
+        private final OutputStream runOut, runErr;
+        private final long begin = System.nanoTime();
+        private final Map<Long, Long> cpuTimes = new HashMap<Long, Long>(); //Nanoseconds, per thread ID
+        private ScheduledFuture<?> check;
+
+        InProcessRun(String name, Map<String, byte[]> classes, RunTimings timings) {
+            this.name = name;
+            this.timings = timings;
+            group = new RunGroup(this);
+
+            //The parent only has the libraries and the platform, so user classes never see Playground's.
+            ArrayList<URL> urls = new ArrayList<URL>();
+            for (File f : libraryManager.getCompileClassPath()) {
+                try {urls.add(f.toURI().toURL());} catch (MalformedURLException m) {}
+            }
+            libraries = new URLClassLoader(urls.toArray(new URL[urls.size()]), ClassLoader.getPlatformClassLoader());
+            loader = new ByteClassLoader(classes, libraries);
+            runOut = new RunStream(out);
+            runErr = new RunStream(err);
+        }
+
+        //Says why a program has to run in its own JVM, or returns null if it can run in this one. Programs
+        //that could exit, use System.in, or open windows on our Event Dispatch Thread get their own.
+        static String getReasonToFork(Map<String, byte[]> classes) {
+            if (unstoppable)
+                return "an earlier in-process run couldn't be stopped";
+            java.lang.management.ThreadMXBean threads = java.lang.management.ManagementFactory.getThreadMXBean();
+            if (Runtime.version().feature() >= 20 || !threads.isThreadCpuTimeSupported() || !threads.isThreadCpuTimeEnabled())
+                return "this JVM can't stop a runaway thread";
+            if (cpuTimeLimit <= 0)
+                return "there's no CPU time limit to stop it with";
+            for (byte[] bytes : classes.values()) {
+                Set<String> references;
+                try {
+                    references = ClassScanner.getReferences(bytes);
+                } catch (IOException i) {
+                    return "couldn't read its class files";
+                }
+                for (String r : references) {
+                    if (r.startsWith("java/awt/") || r.startsWith("javax/swing/"))
+                        return "it uses AWT or Swing";
+                    if (r.equals("java/lang/System.exit") || r.equals("java/lang/Runtime.exit") || r.equals("java/lang/Runtime.halt"))
+                        return "it can exit the JVM";
+                    if (r.equals("java/lang/System.in") || r.startsWith("java/lang/System.set"))
+                        return "it uses the standard streams directly";
+                }
+            }
+            return null;
+        }
+
+        void start() {
+            final ClassLoader loader = this.loader;
+            Thread main = new Thread(group, new Runnable() {
+                        public void run() {
+                            int exit = 0;
+                            try {
+                                Method main = Class.forName(name, true, loader).getMethod("main", String[].class);
+                                main.invoke(null, (Object)new String[0]);
+                            } catch (InvocationTargetException i) {
+                                printError(i.getCause());
+                                exit = 1;
+                            } catch (Throwable t) {
+                                printError(t);
+                                exit = 1;
+                            }
+                            if (!stopped) timings.finish(exit);
+                        }
+                    }, "main");
+            main.setContextClassLoader(loader);
+            timings.start(RunTimings.SPAWN);
+            timings.launched();
+            main.start();
+            timings.stop(RunTimings.SPAWN);
+            check = timer.scheduleAtFixedRate(new Runnable() {
+                        public void run() {check();}
+                    }, Watchdog.INTERVAL, Watchdog.INTERVAL, TimeUnit.MILLISECONDS);
+        }
+
+        //Stops the run if it goes over a time limit. CPU time is the total over all of its threads.
+        private synchronized void check() {
+            if (stopped) return;
+            Thread[] threads = new Thread[group.activeCount() + 8];
+            int count = group.enumerate(threads);
+            if (count == 0) {
+                check.cancel(false); //Finished on its own.
+                return;
+            }
+            java.lang.management.ThreadMXBean bean = java.lang.management.ManagementFactory.getThreadMXBean();
+            for (int i = 0; i < count; i++) {
+                long cpu = bean.getThreadCpuTime(threads[i].getId());
+                if (cpu >= 0) cpuTimes.put(threads[i].getId(), cpu);
+            }
+            long cpu = 0;
+            for (long c : cpuTimes.values())
+                cpu += c;
+            double wall = (System.nanoTime() - begin) / 1e9;
+            String reason = null;
+            if (wallTimeLimit > 0 && wall > wallTimeLimit)
+                reason = "it ran for more than " + wallTimeLimit + " seconds";
+            else if (cpuTimeLimit > 0 && cpu / 1e9 > cpuTimeLimit)
+                reason = "it used more than " + cpuTimeLimit + " seconds of CPU time";
+            if (reason != null) {
+                println("Stopping " + name + ", since " + reason + ".", warning);
+                stop();
+            }
+        }
+
+        //Stops every thread the program started and lets go of its classes. If a thread won't die, it's left
+        //running (there's nothing else to do in-process), and from then on every program gets its own JVM.
+        @SuppressWarnings("deprecation")
+        synchronized void stop() {
+            if (stopped) return;
+            stopped = true;
+            if (check != null) check.cancel(false);
+            group.interrupt();
+            Thread[] threads = new Thread[group.activeCount() + 8];
+            int count = group.enumerate(threads);
+            boolean stuck = false;
+            for (int i = 0; i < count; i++) {
+                try {
+                    threads[i].join(100);
+                    if (threads[i].isAlive()) {
+                        threads[i].stop(); //Ignored interrupts.
+                        threads[i].join(100);
+                    }
+                } catch (Exception e) {} //UnsupportedOperationException, on a JVM without Thread.stop()
+                if (threads[i].isAlive()) stuck = true;
+            }
+            if (stuck) {
+                unstoppable = true;
+                println(name + " couldn't be stopped, and is still running inside Playground. Programs will run in " +
+                    "their own JVM until Playground is restarted.", warning);
+            }
+
+            final WeakReference<ClassLoader> leakCheck = new WeakReference<ClassLoader>(loader);
+            loader = null;
+            try {libraries.close();} catch (IOException i) {}
+            libraries = null;
+
+            Thread checker = new Thread("Leak check") {
+                    public void run() {
+                        try {
+                            Thread.sleep(LEAK_CHECK_DELAY);
+                            System.gc();
+                            Thread.sleep(100);
+                        } catch (InterruptedException i) {
+                            return;
+                        }
+                        if (leakCheck.get() != null)
+                            println("The classes from an earlier in-process run of " + name + " are still loaded. " +
+                                "Something outside it is holding on to them.", warning);
+                    }
+                };
+            checker.setDaemon(true);
+            checker.start();
+        }
+
+        OutputStream getStream(boolean isError) {
+            return isError ? runErr : runOut;
+        }
+
+        private void printError(Throwable t) {
+            PrintStream stream = new PrintStream(runErr, true);
+            stream.print("Exception in thread \"main\" ");
+            t.printStackTrace(stream);
+        }
+
+        /**
+         * Output from one run. Goes to the log until the run is stopped, and nowhere after that.
+         */
+        private class RunStream extends OutputStream {
+            private final OutputStream target;
+
+            RunStream(OutputStream target) {
+                this.target = target;
+            }
+
+            public void write(byte[] buffer, int offset, int length) throws IOException {
+                if (stopped) return;
+                timings.output();
+                target.write(buffer, offset, length);
+            }
+
+            public void write(int b) throws IOException {
+                write(new byte[]{(byte)b}, 0, 1);
+            }
+        }
+    }
+
+    /**
+     * The thread group of an in-process run. Any thread the program starts ends up in it too,
+     * which is how output and uncaught exceptions get traced back to their run.
+     */
+    private static class RunGroup extends ThreadGroup {
+        final InProcessRun run;
+
+        @SuppressWarnings("removal")
+        RunGroup(InProcessRun run) {
+            super("Playground run");
+            this.run = run;
+            setDaemon(true); //Destroyed once its last thread ends, so the parent group doesn't keep every run.
+        }
+
+        public void uncaughtException(Thread t, Throwable e) {
+            if (e instanceof ThreadDeath) return;
+            PrintStream stream = new PrintStream(run.getStream(true), true);
+            stream.print("Exception in thread \"" + t.getName() + "\" ");
+            e.printStackTrace(stream);
+        }
+    }
+
+    /**
+     * What System.out and System.err write to. Output from a thread of an in-process run goes to that run;
+     * everything else goes to the log as usual.
+     */
+    private static class RoutedStream extends OutputStream {
+        private final OutputStream fallback;
+        private final boolean isError;
+
+        RoutedStream(OutputStream fallback, boolean isError) {
+            this.fallback = fallback;
+            this.isError = isError;
+        }
+
+        public void write(byte[] buffer, int offset, int length) throws IOException {
+            getTarget().write(buffer, offset, length);
+        }
+
+        public void write(int b) throws IOException {
+            getTarget().write(b);
+        }
+
+        private OutputStream getTarget() {
+            for (ThreadGroup g = Thread.currentThread().getThreadGroup(); g != null; g = g.getParent())
+                if (g instanceof RunGroup)
+                    return ((RunGroup)g).run.getStream(isError);
+            return fallback;
+        }
+    }
+
+    /**
+     * Reads what a class file refers to straight out of its constant pool: every class it names, as
+     * "java/lang/String", and every field and method it uses, as "java/lang/System.exit".
+     */
+    private static class ClassScanner {
+        static Set<String> getReferences(byte[] classFile) throws IOException {
+            DataInputStream in = new DataInputStream(new ByteArrayInputStream(classFile));
+            if (in.readInt() != 0xCAFEBABE) throw new IOException("Not a class file");
+            in.readUnsignedShort(); //Minor version
+            in.readUnsignedShort(); //Major version
+
+            int count = in.readUnsignedShort();
+            String[] utf8 = new String[count];
+            int[] tags = new int[count], first = new int[count], second = new int[count];
+            for (int i = 1; i < count; i++) {
+                tags[i] = in.readUnsignedByte();
+                switch (tags[i]) {
+                    case 1: utf8[i] = in.readUTF(); break; //Utf8
+                    case 7: case 8: case 16: case 19: case 20: first[i] = in.readUnsignedShort(); break; //Class, String, MethodType, Module, Package
+                    case 15: in.readUnsignedByte(); first[i] = in.readUnsignedShort(); break; //MethodHandle
+                    case 3: case 4: in.readInt(); break; //Integer, Float
+                    case 5: case 6: in.readLong(); i++; break; //Long, Double take two slots
+                    case 9: case 10: case 11: case 12: case 17: case 18: //Refs, NameAndType, Dynamic, InvokeDynamic
+                        first[i] = in.readUnsignedShort();
+                        second[i] = in.readUnsignedShort();
+                        break;
+                    default: throw new IOException("Unknown constant pool tag " + tags[i]);
+                }
+            }
+
+            Set<String> references = new TreeSet<String>();
+            for (int i = 1; i < count; i++) {
+                if (tags[i] == 7) {
+                    references.add(utf8[first[i]]);
+                } else if (tags[i] == 9 || tags[i] == 10 || tags[i] == 11) {
+                    String owner = utf8[first[first[i]]];
+                    String member = utf8[first[second[i]]];
+                    references.add(owner + "." + member);
+                }
+            }
+            return references;
+        }
     }
 
-    public Class<?> findClass(String s) {
-    try {
-    byte[] bytes = loadClassData(s);
-    return defineClass(s, bytes, 0, bytes.length);
-    } catch (IOException ioe) {
-    try {
-    return super.loadClass(s);
-    } catch (ClassNotFoundException ignore) { }
-    ioe.printStackTrace(System.out);
-    return null;
-    }
-    }
+    /**
+     * Defines classes from bytes held in memory, falling back to the parent for everything else. The bytes come
+     * first: the parent's class path can have an old Main.class on it (the working directory is there for the
+     * libraries), and that mustn't win over what was just compiled.
+     */
+    private static class ByteClassLoader extends ClassLoader {
+        private final Map<String, byte[]> classes;
 
-    private byte[] loadClassData(String className) throws IOException {
-    Playground.println("Loading class " + className + ".class", warning);
-    File f = new File(System.getProperty("user.dir") + "/" + className + ".class");
-    byte[] b = new byte[(int) f.length()];
-    new FileInputStream(f).read(b);
-    return b;
+        ByteClassLoader(Map<String, byte[]> classes, ClassLoader parent) {
+            super(parent);
+            this.classes = classes;
+        }
+
+        protected Class<?> loadClass(String name, boolean resolve) throws ClassNotFoundException {
+            if (!classes.containsKey(name))
+                return super.loadClass(name, resolve);
+            synchronized (getClassLoadingLock(name)) {
+                Class<?> c = findLoadedClass(name);
+                if (c == null)
+                    c = findClass(name);
+                if (resolve)
+                    resolveClass(c);
+                return c;
+            }
+        }
+
+        protected Class<?> findClass(String name) throws ClassNotFoundException {
+            byte[] bytes = classes.get(name);
+            if (bytes == null)
+                throw new ClassNotFoundException(name);
+            return defineClass(name, bytes, 0, bytes.length);
+        }
     }
-    }*/
 
     /**
      * Acts as a connection pipe between a reader and a writer. This allows a link between a JVM's output and
@@ -803,13 +4517,15 @@ public class Playground {
     private static class IOHandlerThread extends Thread {
         private Reader reader;
         private TextOutputStream writer;
-        private volatile boolean keepRunning = true;
+        private RunTimings timings;
+        volatile boolean keepRunning = true;
         private String tempWrite = "";
 
-        IOHandlerThread(Reader reader, TextOutputStream writer) {
+        IOHandlerThread(Reader reader, TextOutputStream writer, RunTimings timings) {
             super();
             this.reader = reader;
             this.writer = writer;
+            this.timings = timings;
         }
 
         public void close() {keepRunning = false;}
@@ -817,8 +4533,8 @@ public class Playground {
         public void run()
         {
             try {
-                // An arbitrary buffer size.
-                char [] chbuf = new char[4096];
+                // Matches the size of the buffers the Launcher gives programs.
+                char [] chbuf = new char[Launcher.BUFFER_SIZE];
 
                 //Temporary holding string
                 //String temp = "";
@@ -828,6 +4544,7 @@ public class Playground {
                         keepRunning = false;
                     }
                     else if (keepRunning) {
+                        timings.output();
                         writer.write(chbuf, 0, numchars);
                         if (! reader.ready()) {
                             writer.flush();
@@ -841,6 +4558,576 @@ public class Playground {
         }
     }
 
+    /**
+     * Reads a Launcher's framed stdout: program output, in the order it was written, plus control and metric
+     * frames for the timings. Anything that isn't a frame came from the JVM itself (like -Xlog, which goes to
+     * stdout), and so does all of stderr; both are shown as errors. A frame header that doesn't make sense means
+     * the JVM wrote into the middle of one, so it's skipped and the reader looks for the next one.
+     */
+    private static class ChannelReader extends IOHandlerThread {
+        private final InputStream stream, errors;
+        private final Program program;
+        private final Set<String> classes;
+        private final String name;
+        private final RunTimings timings;
+        private final ByteArrayOutputStream raw = new ByteArrayOutputStream();
+        private String profile;
+        private boolean profiling; //A profile is expected
+        private final ArrayList<String> benchmarks = new ArrayList<String>();
+        private final OutputStream programOut, programErr;
+        private DataOutputStream recording; //The output frames, for the result cache
+        private ByteArrayOutputStream recorded;
+        private boolean finished;
+
+        ChannelReader(Process process, Program program, Set<String> classes, RunTimings timings) {
+            this(process, program, classes, timings, out, err);
+        }
+
+        //Sends the program's output somewhere other than the log.
+        ChannelReader(Process process, Program program, Set<String> classes, RunTimings timings, OutputStream programOut,
+        OutputStream programErr) {
+            super(null, out, timings);
+            this.stream = process.getInputStream();
+            this.errors = process.getErrorStream();
+            this.programOut = programOut;
+            this.programErr = programErr;
+            this.program = program;
+            this.classes = classes;
+            this.name = program.name;
+            this.timings = timings;
+        }
+
+        public void run() {
+            Thread stderr = new Thread("JVM errors") {
+                    public void run() {
+                        byte[] buffer = new byte[Launcher.BUFFER_SIZE];
+                        try {
+                            for (int count; (count = errors.read(buffer)) != -1 && keepRunning;)
+                                programErr.write(buffer, 0, count);
+                        } catch (IOException i) {
+                            //Closed along with the process.
+                        }
+                    }
+                };
+            stderr.setDaemon(true);
+            stderr.start();
+
+            DataInputStream data = new DataInputStream(new BufferedInputStream(stream, Launcher.BUFFER_SIZE));
+            int expected = 0;
+            try {
+                while (keepRunning) {
+                    int b = data.read();
+                    if (b == -1) break;
+                    if (b != Launcher.MAGIC) {
+                        raw.write(b);
+                        if (data.available() == 0) showRaw();
+                        continue;
+                    }
+                    showRaw();
+
+                    data.mark(Launcher.HEADER);
+                    int type = data.readUnsignedByte();
+                    int sequence = data.readInt();
+                    int length = data.readInt();
+                    if (type < Launcher.OUT || type >= Launcher.TYPES || sequence < expected || length < 0 || length > Launcher.FRAME_LIMIT) {
+                        data.reset(); //Not a frame after all. Carries on from the byte after the stray MAGIC.
+                        continue;
+                    }
+                    byte[] payload = new byte[length];
+                    data.readFully(payload);
+                    if (sequence != expected)
+                        println("Lost some program output (frames " + expected + " to " + (sequence - 1) + ").", warning);
+                    expected = sequence + 1;
+                    if (keepRunning) handle(type, payload);
+                }
+            } catch (IOException ex) {
+                if (keepRunning) println("Error when linking JVM output to terminal window input.");
+            }
+            showRaw();
+            try {
+                stderr.join();
+            } catch (InterruptedException i) {}
+            synchronized (this) {
+                finished = keepRunning; //Not if it was closed, since then it didn't read everything.
+            }
+            if (statusBar != null) statusBar.finished(name);
+            if (profile != null && keepRunning) new ProfileReport(profile, program, classes).print();
+            else if (profiling && keepRunning)
+                println("No profile came back from " + name + ". It's sent as the JVM shuts down, so a JVM that was killed " +
+                    "outright, crashed or called Runtime.halt() never sends one.", warning);
+        }
+
+        //Complains at the end if the Launcher never sent a profile. Call before starting.
+        void expectProfile() {
+            profiling = true;
+        }
+
+        private void handle(int type, byte[] payload) throws IOException {
+            switch (type) {
+                case Launcher.OUT:
+                case Launcher.ERR:
+                    timings.output();
+                    (type == Launcher.OUT ? programOut : programErr).write(payload, 0, payload.length);
+                    record(type, payload);
+                    break;
+                case Launcher.CONTROL:
+                    String event = new String(payload, "UTF-8");
+                    if (event.equals("main-start")) timings.start(RunTimings.MAIN);
+                    else if (event.equals("main-end")) timings.stop(RunTimings.MAIN);
+                    break;
+                case Launcher.METRIC:
+                    String[] metric = new String(payload, "UTF-8").split("=", 2);
+                    if (metric.length == 2) timings.setMetric(metric[0], metric[1]);
+                    break;
+                case Launcher.PROFILE:
+                    profile = new String(payload, "UTF-8");
+                    break;
+                case Launcher.BENCHMARK:
+                    benchmarks.add(new String(payload, "UTF-8"));
+                    break;
+                case Launcher.TELEMETRY:
+                    if (statusBar != null && keepRunning) statusBar.update(name, new String(payload, "UTF-8"));
+                    break;
+                default:
+                    //From a newer Launcher, maybe. Nothing to do with it.
+            }
+        }
+
+        //Keeps a copy of the program's output, in order, for getRecording(). Call before starting.
+        void record() {
+            recorded = new ByteArrayOutputStream();
+            recording = new DataOutputStream(recorded);
+        }
+
+        private synchronized void record(int type, byte[] payload) throws IOException {
+            if (recording == null) return;
+            if (recorded.size() + payload.length > ResultCache.OUTPUT_LIMIT) {
+                recording = null; //Too much to be worth keeping.
+                return;
+            }
+            recording.writeByte(type);
+            recording.writeInt(payload.length);
+            recording.write(payload);
+        }
+
+        //The recorded output frames, or null if there are none, or the reader didn't get to the end.
+        synchronized byte[] getRecording() {
+            return recording != null && finished ? recorded.toByteArray() : null;
+        }
+
+        //Results sent by Launcher.Benchmark; complete once the reader has finished.
+        ArrayList<String> getBenchmarks() {
+            return benchmarks;
+        }
+
+        private void showRaw() {
+            if (raw.size() == 0) return;
+            byte[] bytes = raw.toByteArray();
+            raw.reset();
+            try {
+                programErr.write(bytes, 0, bytes.length);
+            } catch (IOException i) {
+                //Only ever the log or a buffer, neither of which throws.
+            }
+        }
+    }
+
+    /**
+     * Runs a program's benchmarks (see Launcher.Benchmark) in a few fresh JVMs, one after another, since a JVM's
+     * JIT decisions can make one run consistently faster or slower than the next. The measured iterations from
+     * every fork are pooled into one report.
+     */
+    private static class BenchmarkRun extends Thread {
+        static final int FORKS = 3, WARMUP = 5, MEASUREMENT = 5, ITERATION_TIME = 100; //Milliseconds per iteration
+
+        private final Program program;
+        private final Map<String, byte[]> classes;
+        private final ArrayList<String> command;
+        private final RunTimings timings;
+        private final Map<String, ArrayList<Double>> results = new LinkedHashMap<String, ArrayList<Double>>();
+        private volatile boolean stopped;
+
+        BenchmarkRun(Program program, Map<String, byte[]> classes, ArrayList<String> command, RunTimings timings) {
+            super("Benchmark");
+            setDaemon(true);
+            this.program = program;
+            this.classes = classes;
+            this.command = new ArrayList<String>(command);
+            //Telemetry and profiling run alongside the benchmarks, and would be measured with them.
+            this.command.remove("-D" + Launcher.TELEMETRY_PROPERTY + "=true");
+            this.command.remove("-D" + Launcher.PROFILE_PROPERTY + "=" + PROFILE_INTERVAL);
+            this.command.add(1, "-D" + Launcher.BENCHMARK_PROPERTY + "=" + WARMUP + "," + MEASUREMENT + "," + ITERATION_TIME);
+            this.command.add(program.name);
+            this.timings = timings;
+        }
+
+        //Only called by kill(), which takes care of the JVM itself.
+        void stopRun() {
+            stopped = true;
+        }
+
+        public void run() {
+            int status = 0;
+            try {
+                for (int fork = 1; fork <= FORKS && status == 0; fork++) {
+                    Process process;
+                    ChannelReader reader;
+                    //Synchronized with kill(), like launch().
+                    synchronized (Playground.class) {
+                        if (stopped) return;
+                        if(verboseCompiling) println("Fork " + fork + " of " + FORKS + "...", progErr);
+                        timings.start(RunTimings.SPAWN);
+                        process = JVM = new ProcessBuilder(command).start();
+                        timings.launched();
+                        Launcher.writeClasses(process.getOutputStream(), classes);
+                        timings.stop(RunTimings.SPAWN);
+                        reader = new ChannelReader(process, program, classes.keySet(), timings);
+                        redirectOut = reader;
+                        reader.start();
+                        new Watchdog(program.name, process);
+                    }
+                    status = process.waitFor();
+                    reader.join();
+                    if (stopped) return;
+                    for (String line : reader.getBenchmarks()) {
+                        String[] split = line.split(" ");
+                        ArrayList<Double> times = results.get(split[0]);
+                        if (times == null) results.put(split[0], times = new ArrayList<Double>());
+                        for (int i = 1; i < split.length; i++)
+                            times.add(Double.parseDouble(split[i]));
+                    }
+                    if (results.isEmpty()) break; //More forks won't find any either.
+                }
+            } catch (Exception e) {
+                println("Couldn't run the benchmark: " + e, warning);
+                return;
+            }
+            timings.finish(status);
+            if (status != 0)
+                println("Benchmark stopped, since a fork failed.", warning);
+            else
+                report();
+        }
+
+        private void report() {
+            if (results.isEmpty()) {
+                println("No benchmarks found. Write static methods with no arguments named bench-something, like benchSort().", warning);
+                return;
+            }
+            println(String.format(Locale.ROOT, "Benchmarks of %s: %d forks of %d warmup and %d measured iterations, %dms each.",
+                    program.name, FORKS, WARMUP, MEASUREMENT, ITERATION_TIME), progErr);
+            println(String.format(Locale.ROOT, "%-20s %12s %10s %12s %12s %12s", "method", "mean ns/op", "stddev", "p50", "p90", "max"), progErr);
+            for (Map.Entry<String, ArrayList<Double>> e : results.entrySet()) {
+                ArrayList<Double> times = e.getValue();
+                Collections.sort(times);
+                double mean = 0, variance = 0;
+                for (double t : times) mean += t;
+                mean /= times.size();
+                for (double t : times) variance += (t - mean) * (t - mean);
+                double stddev = times.size() > 1 ? Math.sqrt(variance / (times.size() - 1)) : 0;
+                println(String.format(Locale.ROOT, "%-20s %12.2f %10.2f %12.2f %12.2f %12.2f", e.getKey(), mean, stddev,
+                        getPercentile(times, 50), getPercentile(times, 90), times.get(times.size() - 1)), progErr);
+            }
+        }
+
+        //Nearest-rank percentile of sorted samples.
+        private static double getPercentile(ArrayList<Double> sorted, int percentile) {
+            int rank = (int)Math.ceil(percentile / 100.0 * sorted.size());
+            return sorted.get(Math.max(0, rank - 1));
+        }
+    }
+
+    /**
+     * Runs a program once for each input listed in its comments, as many at a time as there are cores, and reports
+     * every input's output together once they've all finished. An input is a line like "//sweep: 1 2 3", which
+     * becomes the arguments, or "//sweep-stdin: numbers.txt", which is fed to System.in. The editor's code isn't
+     * a file of its own, so a relative stdin path is taken from the folder Playground was started in, the same
+     * folder the programs run in. Each run gets its own JVM, and its output goes to its own buffer instead of the
+     * log, up to a limit.
+     */
+    private static class SweepRun extends Thread {
+        static final Pattern INPUT = Pattern.compile("^\\s*//\\s*sweep(-stdin)?:(.*)$", Pattern.MULTILINE);
+        static final int OUTPUT_LIMIT = 1 << 16; //Bytes of output kept per input
+
+        private final Program program;
+        private final Map<String, byte[]> classes;
+        private final ArrayList<String> command;
+        private final ArrayList<Input> inputs;
+        private final ArrayList<Process> processes = new ArrayList<Process>();
+        private volatile boolean stopped;
+
+        SweepRun(Program program, Map<String, byte[]> classes, ArrayList<String> command, ArrayList<Input> inputs) {
+            super("Sweep");
+            setDaemon(true);
+            this.program = program;
+            this.classes = classes;
+            //Many at once would only fight over the status bar.
+            this.command = new ArrayList<String>(command);
+            this.command.remove("-D" + Launcher.TELEMETRY_PROPERTY + "=true");
+            this.command.add(program.name);
+            this.inputs = inputs;
+        }
+
+        //The inputs listed in some code, in order.
+        static ArrayList<Input> getInputs(String code) {
+            ArrayList<Input> inputs = new ArrayList<Input>();
+            Matcher m = INPUT.matcher(code);
+            while (m.find()) {
+                String value = m.group(2).trim();
+                if (m.group(1) != null)
+                    inputs.add(new Input(new String[0], new File(value).getAbsoluteFile()));
+                else
+                    inputs.add(new Input(value.isEmpty() ? new String[0] : value.split("\\s+"), null));
+            }
+            return inputs;
+        }
+
+        //Only called by kill().
+        void stopRun() {
+            synchronized (processes) {
+                stopped = true;
+                for (Process p : processes)
+                    destroyTree(p);
+            }
+        }
+
+        public void run() {
+            int cores = Runtime.getRuntime().availableProcessors();
+            ExecutorService executor = Executors.newFixedThreadPool(Math.min(cores, inputs.size()), daemonThreads("Sweep run"));
+            ArrayList<Future<String>> results = new ArrayList<Future<String>>();
+            long start = System.nanoTime();
+            for (int i = 0; i < inputs.size(); i++) {
+                final int index = i;
+                results.add(executor.submit(new Callable<String>() {
+                            public String call() throws Exception {
+                                return run(index);
+                            }
+                        }));
+            }
+            executor.shutdown();
+
+            String[] reports = new String[inputs.size()];
+            for (int i = 0; i < reports.length; i++) {
+                try {
+                    reports[i] = results.get(i).get();
+                } catch (Exception e) {
+                    Throwable cause = e instanceof ExecutionException ? e.getCause() : e;
+                    reports[i] = "--- [" + (i + 1) + "] " + inputs.get(i) + ": couldn't run (" + cause + ")\n";
+                }
+            }
+            if (stopped) return;
+
+            println(String.format(Locale.ROOT, "Swept %s over %d inputs, %d at a time, in %.1fs.", program.name, inputs.size(),
+                    Math.min(cores, inputs.size()), (System.nanoTime() - start) / 1e9), progErr);
+            for (String report : reports)
+                print(report);
+        }
+
+        //Runs the program on one input, and returns its part of the report.
+        private String run(int index) throws Exception {
+            Input input = inputs.get(index);
+            String header = "--- [" + (index + 1) + "] " + input;
+            if (input.stdin != null && !input.stdin.isFile())
+                return header + ": no such file\n";
+
+            ArrayList<String> command = new ArrayList<String>(this.command);
+            command.addAll(Arrays.asList(input.args));
+            Process process;
+            synchronized (processes) {
+                if (stopped) return "";
+                process = new ProcessBuilder(command).start();
+                processes.add(process);
+            }
+            long start = System.nanoTime();
+            BatchRunner.CappedOutput output = new BatchRunner.CappedOutput(OUTPUT_LIMIT);
+            ChannelReader reader = new ChannelReader(process, program, classes.keySet(), new RunTimings(program.name),
+                    output, output);
+            reader.start();
+            new Watchdog(program.name + " [" + (index + 1) + "]", process);
+
+            OutputStream stdin = process.getOutputStream();
+            try {
+                Launcher.writeClasses(stdin, classes);
+                if (input.stdin != null)
+                    java.nio.file.Files.copy(input.stdin.toPath(), stdin);
+                stdin.close(); //So a program reading past its input gets the end of it, instead of waiting.
+            } catch (IOException i) {
+                //It exited before reading it all; its output will say why.
+            }
+            int status = process.waitFor();
+            reader.join();
+            String time = String.format(Locale.ROOT, "%.1fs", (System.nanoTime() - start) / 1e9);
+            String text = output.toString();
+            if (output.truncated)
+                text += (text.endsWith("\n") ? "" : "\n") + "[Output cut off after " + OUTPUT_LIMIT + " bytes]\n";
+            return header + " (exit " + status + ", " + time + ")\n" + text + (text.isEmpty() || text.endsWith("\n") ? "" : "\n");
+        }
+
+        /**
+         * One set of arguments, or one file for System.in.
+         */
+        static class Input {
+            final String[] args;
+            final File stdin;
+
+            Input(String[] args, File stdin) {
+                this.args = args;
+                this.stdin = stdin;
+            }
+
+            public String toString() {
+                if (stdin != null) return "stdin: " + stdin.getPath();
+                return args.length == 0 ? "no args" : "args: " + String.join(" ", args);
+            }
+        }
+    }
+
+    /**
+     * Turns the folded stacks from a Launcher's profiler into a report for the log: the hottest methods, then
+     * the most common stacks, collapsed the way flame graph tools take them. Lines in the program's own classes
+     * are given as editor lines, not lines of the generated code.
+     */
+    private static class ProfileReport {
+        static final int TOP_METHODS = 10, TOP_STACKS = 15;
+
+        private final String name;
+        private final Map<String, Integer> stacks = new HashMap<String, Integer>();
+        private int interval, ticks, samples;
+
+        ProfileReport(String folded, Program program, Set<String> classes) {
+            name = program.name;
+            String[] lines = folded.split("\n");
+            String[] header = lines[0].split(" ");
+            interval = Integer.parseInt(header[0]);
+            ticks = Integer.parseInt(header[1]);
+            for (int i = 1; i < lines.length; i++) {
+                int space = lines[i].lastIndexOf(' ');
+                if (space < 0) continue;
+                int count = Integer.parseInt(lines[i].substring(space + 1));
+                String[] frames = lines[i].substring(0, space).split(";");
+                StringBuilder stack = new StringBuilder(frames[0]); //The thread
+                for (int j = 1; j < frames.length; j++)
+                    stack.append(';').append(toEditorFrame(frames[j], program, classes));
+                add(stacks, stack.toString(), count);
+                samples += count;
+            }
+        }
+
+        void print() {
+            println(String.format(Locale.ROOT, "Profile of %s: %d samples over %d ticks of %dms.", name, samples, ticks, interval), progErr);
+            if (samples == 0) return;
+
+            //Self is time at the top of the stack, total is time anywhere in it.
+            Map<String, Integer> self = new HashMap<String, Integer>(), total = new HashMap<String, Integer>();
+            for (Map.Entry<String, Integer> e : stacks.entrySet()) {
+                String[] frames = e.getKey().split(";");
+                if (frames.length < 2) continue;
+                add(self, getMethod(frames[frames.length - 1]), e.getValue());
+                HashSet<String> seen = new HashSet<String>();
+                for (int i = 1; i < frames.length; i++)
+                    if (seen.add(getMethod(frames[i]))) add(total, getMethod(frames[i]), e.getValue());
+            }
+            println("  self  total  method", progErr);
+            for (String method : getTop(self, TOP_METHODS))
+                println(String.format(Locale.ROOT, "%5.1f%% %5.1f%%  %s", 100.0 * self.get(method) / samples,
+                        100.0 * total.get(method) / samples, method), progErr);
+
+            println("Hottest stacks, collapsed:", progErr);
+            for (String stack : getTop(stacks, TOP_STACKS))
+                println(shorten(stack) + " " + stacks.get(stack), progErr);
+        }
+
+        //Runs of the same frame, as in recursion, are written once with how many there were: "Main.fib (line 3) x20".
+        private static String shorten(String stack) {
+            String[] frames = stack.split(";");
+            StringBuilder shortened = new StringBuilder(frames[0]);
+            for (int i = 1, run; i < frames.length; i += run) {
+                for (run = 1; i + run < frames.length && frames[i + run].equals(frames[i]); run++);
+                shortened.append(';').append(frames[i]);
+                if (run > 1) shortened.append(" x").append(run);
+            }
+            return shortened.toString();
+        }
+
+        //"Main.fib:12" becomes "Main.fib (line 3)" for the program's own classes, and "Main.fib" for everything else.
+        private static String toEditorFrame(String frame, Program program, Set<String> classes) {
+            int colon = frame.lastIndexOf(':');
+            if (colon < 0) return frame;
+            String method = frame.substring(0, colon);
+            int dot = method.lastIndexOf('.');
+            if (dot < 0 || !classes.contains(method.substring(0, dot))) return method;
+            int line = toEditorLine(program, Integer.parseInt(frame.substring(colon + 1)));
+            return line > 0 ? method + " (line " + line + ")" : method;
+        }
+
+        private static String getMethod(String frame) {
+            int line = frame.indexOf(" (line ");
+            return line < 0 ? frame : frame.substring(0, line);
+        }
+
+        private static void add(Map<String, Integer> counts, String key, int count) {
+            Integer old = counts.get(key);
+            counts.put(key, old == null ? count : old + count);
+        }
+
+        private static ArrayList<String> getTop(final Map<String, Integer> counts, int limit) {
+            ArrayList<String> keys = new ArrayList<String>(counts.keySet());
+            Collections.sort(keys, new Comparator<String>() {
+                    public int compare(String a, String b) {return counts.get(b) - counts.get(a);}
+                });
+            return new ArrayList<String>(keys.subList(0, Math.min(limit, keys.size())));
+        }
+    }
+
+    /**
+     * A strip under the editor showing how the running program is doing, from the telemetry its Launcher sends
+     * a few times a second. Keeps the last reading once the program is done, so a blowup can still be looked at.
+     */
+    private static class StatusBar extends JLabel {
+        private String last = "";
+
+        StatusBar() {
+            super(" ");
+            setBorder(BorderFactory.createEmptyBorder(2, 6, 2, 6));
+            setFont(getFont().deriveFont(Font.PLAIN, 11f));
+        }
+
+        //Shows a telemetry frame: comma-separated name=value pairs.
+        void update(String name, String telemetry) {
+            Map<String, Long> values = new HashMap<String, Long>();
+            for (String pair : telemetry.split(",")) {
+                String[] parts = pair.split("=", 2);
+                try {values.put(parts[0], Long.parseLong(parts[1]));} catch (Exception e) {}
+            }
+            StringBuilder text = new StringBuilder();
+            text.append(String.format(Locale.ROOT, "heap %.1f / %.1f MB", get(values, "heapUsed") / 1048576.0, get(values, "heapCommitted") / 1048576.0));
+            text.append(String.format(Locale.ROOT, "   GC %d (%d ms)", get(values, "gcCount"), get(values, "gcTime")));
+            text.append(String.format(Locale.ROOT, "   %d threads", get(values, "threads")));
+            if (get(values, "cpu") >= 0)
+                text.append(String.format(Locale.ROOT, "   CPU %d%%", get(values, "cpu")));
+            last = text.toString();
+            show(name + " running:   " + last);
+        }
+
+        void finished(String name) {
+            show(last.isEmpty() ? " " : name + " finished:   " + last);
+        }
+
+        void clear() {
+            last = "";
+            show(" ");
+        }
+
+        private void show(final String text) {
+            SwingUtilities.invokeLater(new Runnable() {public void run() {setText(text);}});
+        }
+
+        private static long get(Map<String, Long> values, String name) {
+            Long value = values.get(name);
+            return value != null ? value : 0;
+        }
+    }
+
     private static class HighlightFilter extends DocumentFilter {
         //All keywords, sorted by relevant groups.
         static final String[] primitives = new String[]{"short","int","long","float","double","byte","boolean","char","true","false","null","void"};
@@ -890,6 +5177,8 @@ public class Playground {
 
                 //fb.replace(offset, length, s, set); //Old code
                 fb.replace(offset, length, s, attributeScheme[11]);//Color option new code
+                if (speculativeCompiler != null) speculativeCompiler.edited();
+                if (syntaxChecker != null) syntaxChecker.edited();
                 final String all = fb.getDocument().getText(0, fb.getDocument().getLength());
                 final int l = huntLeft(all,offset), r = huntRight(all,offset+s.length());
 
@@ -921,6 +5210,8 @@ public class Playground {
 
                 //Removes the given text
                 fb.remove(offset, length);
+                if (speculativeCompiler != null) speculativeCompiler.edited();
+                if (syntaxChecker != null) syntaxChecker.edited();
 
                 //Updates highlights on the new dirty area
                 all = fb.getDocument().getText(0, fb.getDocument().getLength()); 
@@ -1002,6 +5293,8 @@ public class Playground {
         static JPanel op1;
         static JPanel op2;
         static JPanel op3;
+        static JPanel op4;
+        static JPanel op5;
         static JTextField run, reset, opt, terminal, help;
         //Used for looking up values in color options
         static final Color [] colorMap = 
@@ -1019,7 +5312,7 @@ public class Playground {
 
         public OptionFrame(JFrame f) {
             super("Options");
-            setSize(400,300); //was 320,240
+            setSize(400,610); //was 320,240, then 400,300
             setResizable(false);
             
             addWindowListener(new WindowAdapter() {
@@ -1030,7 +5323,7 @@ public class Playground {
             
             options = new JTabbedPane();
             op1 = new JPanel();
-            op1.setLayout(new GridLayout(7,2));
+            op1.setLayout(new GridLayout(19,2));
 
             op1.add(new JLabel("Terminal orientation?"));
             String s = isVerticalSplitterPane ? "Vertical" : "Horizontal";
@@ -1090,6 +5383,148 @@ public class Playground {
                 });
             op1.add(clear);
 
+            op1.add(new JLabel("Compile in memory?"));
+            final JCheckBox memory = new JCheckBox(inMemoryCompiling ? "Enabled" : "Disabled", inMemoryCompiling);
+            memory.addItemListener(new ItemListener() {
+                    public void itemStateChanged(ItemEvent i) {
+                        inMemoryCompiling = memory.isSelected();
+                        memory.setText(inMemoryCompiling ? "Enabled" : "Disabled");
+                        if (inMemoryCompiling) prepareWorkers(); else workerPool.shutdown();
+                        saveSettings();
+                    }
+                });
+            op1.add(memory);
+
+            op1.add(new JLabel("Compile while typing?"));
+            final JCheckBox speculative = new JCheckBox(speculativeCompiling ? "Enabled" : "Disabled", speculativeCompiling);
+            speculative.addItemListener(new ItemListener() {
+                    public void itemStateChanged(ItemEvent i) {
+                        speculativeCompiling = speculative.isSelected();
+                        speculative.setText(speculativeCompiling ? "Enabled" : "Disabled");
+                        saveSettings();
+                    }
+                });
+            op1.add(speculative);
+
+            op1.add(new JLabel("Check syntax while typing?"));
+            final JCheckBox syntax = new JCheckBox(syntaxChecking ? "Enabled" : "Disabled", syntaxChecking);
+            syntax.addItemListener(new ItemListener() {
+                    public void itemStateChanged(ItemEvent i) {
+                        syntaxChecking = syntax.isSelected();
+                        syntax.setText(syntaxChecking ? "Enabled" : "Disabled");
+                        saveSettings();
+                    }
+                });
+            op1.add(syntax);
+
+            op1.add(new JLabel("Use compile daemon?"));
+            final JCheckBox daemon = new JCheckBox(useCompileDaemon ? "Enabled" : "Disabled", useCompileDaemon);
+            daemon.addItemListener(new ItemListener() {
+                    public void itemStateChanged(ItemEvent i) {
+                        useCompileDaemon = daemon.isSelected();
+                        daemon.setText(useCompileDaemon ? "Enabled" : "Disabled");
+                        saveSettings();
+                    }
+                });
+            op1.add(daemon);
+
+            op1.add(new JLabel("Run simple programs in-process?"));
+            final JCheckBox inProcess = new JCheckBox(inProcessRunning ? "Enabled" : "Disabled", inProcessRunning);
+            inProcess.setToolTipText("Only with a CPU time limit, and only on Java versions that can still stop a thread (before 20).");
+            inProcess.addItemListener(new ItemListener() {
+                    public void itemStateChanged(ItemEvent i) {
+                        inProcessRunning = inProcess.isSelected();
+                        inProcess.setText(inProcessRunning ? "Enabled" : "Disabled");
+                        saveSettings();
+                    }
+                });
+            op1.add(inProcess);
+
+            op1.add(new JLabel("Keep JVMs ready to run?"));
+            final JCheckBox pool = new JCheckBox(useWorkerPool ? "Enabled" : "Disabled", useWorkerPool);
+            pool.addItemListener(new ItemListener() {
+                    public void itemStateChanged(ItemEvent i) {
+                        useWorkerPool = pool.isSelected();
+                        pool.setText(useWorkerPool ? "Enabled" : "Disabled");
+                        if (useWorkerPool) prepareWorkers(); else workerPool.shutdown();
+                        saveSettings();
+                    }
+                });
+            op1.add(pool);
+
+            op1.add(new JLabel("Share class data with programs?"));
+            final JCheckBox sharing = new JCheckBox(useClassDataArchive ? "Enabled" : "Disabled", useClassDataArchive);
+            sharing.addItemListener(new ItemListener() {
+                    public void itemStateChanged(ItemEvent i) {
+                        useClassDataArchive = sharing.isSelected();
+                        sharing.setText(useClassDataArchive ? "Enabled" : "Disabled");
+                        if (useClassDataArchive) prepareRuntime(); else prepareWorkers();
+                        saveSettings();
+                    }
+                });
+            op1.add(sharing);
+
+            op1.add(new JLabel("Run programs on a trimmed JDK?"));
+            final JCheckBox image = new JCheckBox(useRuntimeImage ? "Enabled" : "Disabled", useRuntimeImage);
+            image.addItemListener(new ItemListener() {
+                    public void itemStateChanged(ItemEvent i) {
+                        useRuntimeImage = image.isSelected();
+                        image.setText(useRuntimeImage ? "Enabled" : "Disabled");
+                        prepareRuntime(); //The class data archive goes with the runtime.
+                        saveSettings();
+                    }
+                });
+            op1.add(image);
+
+            op1.add(new JLabel("Hot-swap into running programs?"));
+            final JCheckBox swap = new JCheckBox(hotSwapping ? "Enabled" : "Disabled", hotSwapping);
+            swap.addItemListener(new ItemListener() {
+                    public void itemStateChanged(ItemEvent i) {
+                        hotSwapping = swap.isSelected();
+                        swap.setText(hotSwapping ? "Enabled" : "Disabled");
+                        saveSettings();
+                    }
+                });
+            op1.add(swap);
+
+            op1.add(new JLabel("Buffer program output?"));
+            final JCheckBox buffer = new JCheckBox(bufferOutput ? "Enabled" : "Disabled", bufferOutput);
+            buffer.addItemListener(new ItemListener() {
+                    public void itemStateChanged(ItemEvent i) {
+                        bufferOutput = buffer.isSelected();
+                        buffer.setText(bufferOutput ? "Enabled" : "Disabled");
+                        prepareWorkers();
+                        saveSettings();
+                    }
+                });
+            op1.add(buffer);
+
+            op1.add(new JLabel("Show program telemetry?"));
+            final JCheckBox telemetry = new JCheckBox(showTelemetry ? "Enabled" : "Disabled", showTelemetry);
+            telemetry.addItemListener(new ItemListener() {
+                    public void itemStateChanged(ItemEvent i) {
+                        showTelemetry = telemetry.isSelected();
+                        telemetry.setText(showTelemetry ? "Enabled" : "Disabled");
+                        statusBar.setVisible(showTelemetry);
+                        prepareWorkers();
+                        saveSettings();
+                    }
+                });
+            op1.add(telemetry);
+
+            op1.add(new JLabel("Replay unchanged results?"));
+            final JCheckBox results = new JCheckBox(cacheResults ? "Enabled" : "Disabled", cacheResults);
+            results.setToolTipText("Replays the output of programs that look deterministic. Printing an array, or a HashSet " +
+                "of enums or plain Objects, can still come out different each run.");
+            results.addItemListener(new ItemListener() {
+                    public void itemStateChanged(ItemEvent i) {
+                        cacheResults = results.isSelected();
+                        results.setText(cacheResults ? "Enabled" : "Disabled");
+                        saveSettings();
+                    }
+                });
+            op1.add(results);
+
             op1.add(new JLabel("Compiler options:"));
             final JTextField compile = new JTextField(compileOptions);
             compile.getDocument().addDocumentListener(new DocumentListener() {
@@ -1101,6 +5536,7 @@ public class Playground {
 
                     public void update() {
                         compileOptions = compile.getText();
+                        if (compilerService != null) compilerService.reset(); //New options, new file manager.
                         saveSettings();
                     }
                 });
@@ -1117,6 +5553,7 @@ public class Playground {
 
                     public void update() {
                         runOptions = run.getText();
+                        prepareWorkers();
                         saveSettings();
                     }
                 });
@@ -1225,14 +5662,108 @@ public class Playground {
                 op2.add(j);
             }
 
+            //Libraries: jars and class folders for programs to use
+            op4 = new JPanel(new BorderLayout());
+            final DefaultListModel<File> libraries = new DefaultListModel<>();
+            for (File library : libraryManager.getLibraries())
+                libraries.addElement(library);
+            final JList<File> libraryList = new JList<>(libraries);
+            op4.add(new JScrollPane(libraryList), BorderLayout.CENTER);
+
+            JPanel libraryButtons = new JPanel();
+            JButton add = new JButton("Add...");
+            add.addActionListener(new ActionListener() {
+                    public void actionPerformed(ActionEvent a) {
+                        if (chooser == null) {
+                            chooser = new JFileChooser();
+                            chooser.setFileSelectionMode(JFileChooser.FILES_AND_DIRECTORIES);
+                        }
+                        if (chooser.showOpenDialog(OptionFrame.this) != JFileChooser.APPROVE_OPTION) return;
+                        File library = chooser.getSelectedFile();
+                        if (libraryManager.add(library)) {
+                            libraries.addElement(library.getAbsoluteFile());
+                            if(verboseCompiling) println("Added " + library.getName() + ".", progErr);
+                            saveSettings();
+                            if (useRuntimeImage) prepareRuntime(); //It may need more modules now.
+                            else prepareWorkers();
+                        } else {
+                            println("Couldn't read " + library + " as a jar or class folder.", warning);
+                        }
+                    }
+                });
+            libraryButtons.add(add);
+            JButton remove = new JButton("Remove");
+            remove.addActionListener(new ActionListener() {
+                    public void actionPerformed(ActionEvent a) {
+                        File library = libraryList.getSelectedValue();
+                        if (library == null) return;
+                        libraryManager.remove(library);
+                        libraries.removeElement(library);
+                        saveSettings();
+                        if (useRuntimeImage) prepareRuntime();
+                        else prepareWorkers();
+                    }
+                });
+            libraryButtons.add(remove);
+            op4.add(libraryButtons, BorderLayout.SOUTH);
+
+            //Limits: what one run is allowed to use. The watchdog enforces them.
+            op5 = new JPanel(new GridLayout(4,2));
+            op5.add(new JLabel("Wall-clock limit (seconds):"));
+            op5.add(new LimitField(wallTimeLimit) {
+                    void set(int value) {wallTimeLimit = value;}
+                });
+            op5.add(new JLabel("CPU time limit (seconds):"));
+            op5.add(new LimitField(cpuTimeLimit) {
+                    void set(int value) {cpuTimeLimit = value;}
+                });
+            op5.add(new JLabel("Heap limit (MB):"));
+            op5.add(new LimitField(heapLimit) {
+                    void set(int value) {heapLimit = value; prepareWorkers();}
+                });
+            op5.add(new JLabel("0 means no limit."));
+            JPanel limits = new JPanel(new BorderLayout());
+            limits.add(op5, BorderLayout.NORTH);
+
             options.addTab("Color", op2);
             options.addTab("Themes", op3);
+            options.addTab("Libraries", op4);
+            options.addTab("Limits", limits);
 
             add(options);
             setLocationRelativeTo(f); //Makes this pop up in the center of the frame
             setVisible(true);
         }
 
+        /**
+         * A text field for a whole number of something. Saves the setting whenever it holds a valid number.
+         */
+        private abstract static class LimitField extends JTextField {
+            LimitField(int value) {
+                super(String.valueOf(value));
+                getDocument().addDocumentListener(new DocumentListener() {
+                        public void changedUpdate(DocumentEvent d) {update();}
+
+                        public void removeUpdate(DocumentEvent d)  {update();}
+
+                        public void insertUpdate(DocumentEvent d)  {update();}
+
+                        public void update() {
+                            try {
+                                int value = Integer.parseInt(getText().trim());
+                                if (value < 0) return;
+                                set(value);
+                                saveSettings();
+                            } catch (NumberFormatException n) {
+                                //Half-typed. Keeps the old value for now.
+                            }
+                        }
+                    });
+            }
+
+            abstract void set(int value);
+        }
+
         private int indexOf(Color c) {
             for (int i = 0; i < colorMap.length; i++) 
                 if(colorMap[i].equals(c))
@@ -1291,7 +5822,7 @@ public class Playground {
     private static class HelpFrame extends JFrame {
         public HelpFrame(JFrame f) {
             super("Help menu");
-            setSize(320, 240);
+            setSize(320, 300);
             setLocationRelativeTo(f);
             setResizable(false);
 
@@ -1303,7 +5834,9 @@ public class Playground {
             
             JTextArea message = new JTextArea();
             message.setEditable(false);
-            message.setText("Default keybindings:\n     -Cmd+e to toggle terminal\n     -Cmd+r to run\n     -Cmd+k to reset JVM\n" +
+            message.setText("Default keybindings:\n     -Cmd+e to toggle terminal\n     -Cmd+r to run\n     -Cmd+p to run with the profiler\n" +
+                "     -Cmd+b to run bench... methods as benchmarks\n     -Cmd+g to run once per //sweep: input\n" +
+                "     -Cmd+k to reset JVM\n" +
                 "     -Cmd+/ to show help\n     -Cmd+o for options\n\n" + 
                 "Special notes: \n     -Import statements can be typed anywhere \n     -Type methods anywhere and they'll work\n\n" +
                 "Other: \n     -You can also use this for normal Java editing!");
@@ -1313,9 +5846,82 @@ public class Playground {
         }
     }
 
-    private static class ErrorReporter implements DiagnosticListener {
-        public void report(Diagnostic d) {
-            println(d.getMessage(null), progErr);
+    /**
+     * Collects javac's diagnostics for one compile, instead of letting them stream into the log a chunk at a
+     * time. Duplicates are dropped and the list is capped, so a badly broken file can't flood the console; the
+     * whole report then goes into the log in one update, and the errors get underlined in the editor.
+     */
+    private static class ErrorReporter implements DiagnosticListener<JavaFileObject> {
+        static final int MAX_DIAGNOSTICS = 50;
+
+        private final Program program;
+        private final ArrayList<Diagnostic<? extends JavaFileObject>> diagnostics = new ArrayList<Diagnostic<? extends JavaFileObject>>();
+        private final HashSet<String> seen = new HashSet<String>();
+        private int dropped;
+
+        ErrorReporter(Program program) {
+            this.program = program;
+        }
+
+        public synchronized void report(Diagnostic<? extends JavaFileObject> d) {
+            if (!seen.add(d.getKind() + ":" + d.getPosition() + ":" + d.getMessage(null)))
+                return;
+            if (diagnostics.size() < MAX_DIAGNOSTICS)
+                diagnostics.add(d);
+            else
+                dropped++;
+        }
+
+        //Prints everything that was reported, and underlines the errors.
+        synchronized void print() {
+            if (diagnostics.isEmpty()) return;
+
+            final ArrayList<String> lines = new ArrayList<String>();
+            final ArrayList<SimpleAttributeSet> styles = new ArrayList<SimpleAttributeSet>();
+            ArrayList<int[]> bounds = new ArrayList<int[]>();
+            ArrayList<String> messages = new ArrayList<String>();
+            for (Diagnostic<? extends JavaFileObject> d : diagnostics) {
+                String message = d.getMessage(null);
+                int start = toEditorOffset(program, d.getStartPosition());
+
+                //Line numbers are the editor's, not the generated class's.
+                String where;
+                if (start >= 0)
+                    where = "Line " + (countLines(program.source, start) + 1);
+                else if (d.getLineNumber() > 0)
+                    where = "Generated code, line " + d.getLineNumber();
+                else
+                    where = program.name;
+                lines.add(where + ": " + d.getKind().toString().toLowerCase().replace('_', ' ') + ": " + message);
+                styles.add(d.getKind() == Diagnostic.Kind.ERROR ? error : d.getKind() == Diagnostic.Kind.NOTE ? progErr : warning);
+
+                if (d.getKind() == Diagnostic.Kind.ERROR && start >= 0) {
+                    int length = (int)Math.max(1, d.getEndPosition() - d.getStartPosition());
+                    start = Math.max(0, Math.min(start, program.source.length() - 1));
+                    bounds.add(new int[]{start, Math.min(start + length, program.source.length())});
+                    messages.add(message);
+                }
+            }
+            if (dropped > 0) {
+                lines.add("...and " + dropped + " more.");
+                styles.add(warning);
+            }
+
+            SwingUtilities.invokeLater(new Runnable() {
+                    public void run() {
+                        for (int i = 0; i < lines.size(); i++)
+                            println(lines.get(i), styles.get(i));
+                    }
+                });
+            if (syntaxChecker != null && !bounds.isEmpty())
+                syntaxChecker.underline(program.source, bounds, messages);
+        }
+
+        private static int countLines(String s, int end) {
+            int lines = 0;
+            for (int i = 0; i < end; i++)
+                if (s.charAt(i) == '\n') lines++;
+            return lines;
         }
     }
 }
\ No newline at end of file